@@ -65,17 +65,15 @@ import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.Circle;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.Polyline;
-import com.google.android.gms.maps.model.PolylineOptions;
-import com.opencsv.CSVWriter;
+import com.villoren.android.kalmanlocationmanager.lib.FilterOptions;
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
 import com.villoren.android.kalmanlocationmanager.lib.KalmanLocationManager;
+import com.villoren.android.kalmanlocationmanager.lib.LocationConverter;
+import com.villoren.android.kalmanlocationmanager.lib.log.AsyncTrackLogger;
+import com.villoren.android.kalmanlocationmanager.lib.log.TrackLogWriter;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Calendar;
 
 import static com.villoren.android.kalmanlocationmanager.lib.KalmanLocationManager.UseProvider;
 
@@ -109,10 +107,17 @@ public class MainActivity extends Activity {
      * Lets say we want 5 updates (estimates) per second = update each 200 millis.
      *
      * New: removed final to reduce overshooting by adapting filter_time to other intervalls:
-     * gps and net TODO
+     * gps and net
      * Reason: Sometimes the updates come really seldom
      */
     private static long FILTER_TIME = 1000;
+
+    /**
+     * While standing still (slower than STATIONARY_SPEED, in m/s), the filter slows its predictions
+     * down to one every MAX_FILTER_TIME millis, and goes back to FILTER_TIME when moving again.
+     */
+    private static final long MAX_FILTER_TIME = 5000;
+    private static final double STATIONARY_SPEED = 0.5;
     long starttime;
 
 
@@ -137,17 +142,15 @@ public class MainActivity extends Activity {
     private GoogleMap mGoogleMap;
     private Circle mGpsCircle;
     private Circle mNetCircle;
-    private ArrayList<Polyline> mGpsPolyLines;
-    private PolylineOptions mGpsPolyLineOptions;
-    private ArrayList<Polyline> mNetPolyLines;
-    private PolylineOptions mNetPolyLineOptions;
-    private ArrayList<Polyline> mKalmanPolyLines;
-    private PolylineOptions mKalmanPolyLineOptions;
+    private TrackLayer mGpsTrack;
+    private TrackLayer mNetTrack;
+    private TrackLayer mKalmanTrack;
 
-    //CSV writers
-    CSVWriter mKalmanWriter;
-    CSVWriter mNetWriter;
-    CSVWriter mGpsWriter;
+    // Binary track logs, written in background threads
+    AsyncTrackLogger mKalmanWriter;
+    AsyncTrackLogger mNetWriter;
+    AsyncTrackLogger mGpsWriter;
+    private final Fix mLogFix = new Fix((String) null);
 
 
     // Textview animation
@@ -224,10 +227,6 @@ public class MainActivity extends Activity {
 
         mNetCircle = mGoogleMap.addCircle(netCircleOptions);
 
-        mGpsPolyLines = new ArrayList<>();
-        mNetPolyLines = new ArrayList<>();
-        mKalmanPolyLines = new ArrayList<>();
-
         requestPermissions(new String[]{Manifest.permission.WRITE_EXTERNAL_STORAGE}, 3);
 
         setLogging(false);
@@ -260,22 +259,16 @@ public class MainActivity extends Activity {
                 if (logging)
                 {
                     setLogging(false);
-                    try
-                    {
-                        mGpsWriter.close();
-                        mNetWriter.close();
-                        mKalmanWriter.close();
-                        removeAllLines();
-                        Log.d("Main", "Stopped Logging");
-                        Toast.makeText(
-                                MainActivity.this,
-                                "Stopped logging",
-                                Toast.LENGTH_SHORT)
-                                .show();
-                    } catch (IOException e)
-                    {
-                        e.printStackTrace();
-                    }
+                    closeTrackLogger(mGpsWriter);
+                    closeTrackLogger(mNetWriter);
+                    closeTrackLogger(mKalmanWriter);
+                    removeAllLines();
+                    Log.d("Main", "Stopped Logging");
+                    Toast.makeText(
+                            MainActivity.this,
+                            "Stopped logging",
+                            Toast.LENGTH_SHORT)
+                            .show();
                 }
                 initAllLoggers();
                 initLines();
@@ -297,91 +290,68 @@ public class MainActivity extends Activity {
 
     void initLines()
     {
-        mGpsPolyLineOptions = new PolylineOptions()
-                .width(5)
-                .color(Color.RED);
-        mGpsPolyLines.add(mGoogleMap.addPolyline(mGpsPolyLineOptions));
-
-        mNetPolyLineOptions = new PolylineOptions()
-                .width(5)
-                .color(Color.GREEN);
-        mNetPolyLines.add(mGoogleMap.addPolyline(mNetPolyLineOptions));
-
-        mKalmanPolyLineOptions = new PolylineOptions()
-                .width(5)
-                .color(Color.BLUE);
-        mKalmanPolyLines.add(mGoogleMap.addPolyline(mKalmanPolyLineOptions));
+        mGpsTrack = new TrackLayer(mGoogleMap, Color.RED, 5);
+        mNetTrack = new TrackLayer(mGoogleMap, Color.GREEN, 5);
+        mKalmanTrack = new TrackLayer(mGoogleMap, Color.BLUE, 5);
     }
 
     void removeAllLines()
     {
-        for (Polyline l :
-                mGpsPolyLines)
-        {
-            l.remove();
-        }
-        mGpsPolyLineOptions = new PolylineOptions();
-        mGpsPolyLines.clear();
-        for (Polyline l :
-                mNetPolyLines)
-        {
-            l.remove();
-        }
-        mNetPolyLines.clear();
-        for (Polyline l :
-                mKalmanPolyLines)
-        {
-            l.remove();
-        }
-        mKalmanPolyLines.clear();
+        mGpsTrack.remove();
+        mNetTrack.remove();
+        mKalmanTrack.remove();
     }
 
     void initAllLoggers()
     {
-        mGpsWriter = initCSVLogger("KalmanLocationLog/GPSData.csv");
-        mNetWriter = initCSVLogger("KalmanLocationLog/NetData.csv");
-        mKalmanWriter = initCSVLogger("KalmanLocationLog/KalmanData.csv");
+        mGpsWriter = initTrackLogger("KalmanLocationLog/GPSData.klog");
+        mNetWriter = initTrackLogger("KalmanLocationLog/NetData.klog");
+        mKalmanWriter = initTrackLogger("KalmanLocationLog/KalmanData.klog");
         setLogging(true);
     }
 
-    private CSVWriter initCSVLogger(String filename)
+    private AsyncTrackLogger initTrackLogger(String filename)
     {
-        // Saving data to .csv
-        String fileName = "KalmanLocationLog/GPSData.csv";
+        // Saving data to a binary track log (see TrackLogReader)
         File file = null;
-        boolean success = true;
         if(isExternalStorageWritable())
         {
             file = new File(Environment.getExternalStorageDirectory(), filename);
 
             if(hasPermission(Manifest.permission.WRITE_EXTERNAL_STORAGE)) {
-                try {
-                    File parent = file.getParentFile();
-                    parent.mkdirs();
-                    file.createNewFile();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                File parent = file.getParentFile();
+                parent.mkdirs();
             }
         }
-        FileWriter writer = null;
+        AsyncTrackLogger logger = null;
         try
         {
-            writer = new FileWriter(file);
+            logger = new AsyncTrackLogger(new TrackLogWriter(file), 1024, 64, 1000);
         } catch (IOException e)
         {
             e.printStackTrace();
         }
-        CSVWriter csWriter = new CSVWriter(writer);
-        String[] header = {
-                "Latitude",
-                "Longitude",
-                "Accuracy",
-                "Speed",
-                "Timestamp"
-        };
-        csWriter.writeNext(header, false);
-        return csWriter;
+        return logger;
+    }
+
+    private void logLocation(AsyncTrackLogger logger, Location location)
+    {
+        if (logger == null)
+            return;
+
+        logger.log(LocationConverter.toFix(location, mLogFix));
+    }
+
+    private void closeTrackLogger(AsyncTrackLogger logger)
+    {
+        if (logger == null)
+            return;
+
+        // Writes what is queued and closes the file in the logger's own thread
+        logger.close();
+
+        if (logger.getDroppedCount() > 0)
+            Log.w("Main", "Track logger dropped " + logger.getDroppedCount() + " fixes");
     }
 
     /* Checks if external storage is available for read and write */
@@ -448,7 +418,10 @@ public class MainActivity extends Activity {
         starttime = System.currentTimeMillis();
 
         mKalmanLocationManager.requestLocationUpdates(
-                mCurrentProvider, FILTER_TIME, GPS_TIME, NET_TIME, mLocationListener, true);
+                mCurrentProvider, FILTER_TIME, GPS_TIME, NET_TIME, mLocationListener, true,
+                new FilterOptions()
+                        .adaptiveRate(MAX_FILTER_TIME, STATIONARY_SPEED)
+                        .localFrame(true));
     }
 
     @Override
@@ -463,17 +436,6 @@ public class MainActivity extends Activity {
         mPreferences.edit().putInt("zoom", sbZoom.getProgress()).apply();
     }
 
-    private String[] formatDataforCSV(Location location)
-    {
-        return new String[]{
-                String.valueOf(location.getLatitude()),
-                String.valueOf(location.getLongitude()),
-                String.valueOf(location.getAccuracy()),
-                String.valueOf(location.getSpeed()),
-                new SimpleDateFormat("HH:mm:ss:SS").format(Calendar.getInstance().getTime())
-        };
-    }
-
     /**
      * Listener used to get updates from KalmanLocationManager (the good old Android LocationListener).
      */
@@ -504,9 +466,8 @@ public class MainActivity extends Activity {
 
                 if(logging)
                 {
-                    mGpsPolyLineOptions.add(latLng);
-                    mGpsPolyLines.add(mGoogleMap.addPolyline(mGpsPolyLineOptions));
-                    mGpsWriter.writeNext(formatDataforCSV(location), false);
+                    mGpsTrack.add(latLng);
+                    logLocation(mGpsWriter, location);
                 }
             }
 
@@ -523,9 +484,8 @@ public class MainActivity extends Activity {
 
                 if(logging)
                 {
-                    mNetPolyLineOptions.add(latLng);
-                    mNetPolyLines.add(mGoogleMap.addPolyline(mNetPolyLineOptions));
-                    mNetWriter.writeNext(formatDataforCSV(location), false);
+                    mNetTrack.add(latLng);
+                    logLocation(mNetWriter, location);
                 }
             }
 
@@ -535,21 +495,30 @@ public class MainActivity extends Activity {
 
                 if(logging)
                 {
-                    mKalmanPolyLineOptions.add(latLng);
-                    mKalmanPolyLines.add(mGoogleMap.addPolyline(mKalmanPolyLineOptions));
-                    mKalmanWriter.writeNext(formatDataforCSV(location), false);
+                    mKalmanTrack.add(latLng);
+                    logLocation(mKalmanWriter, location);
                 }
 
                 // Update blue "myLocation" dot
                 mOnLocationChangedListener.onLocationChanged(location);
 
                 // Update camera position
+                float zoom = sbZoom.getProgress() / 10.0f + 10.0f;
+
                 CameraPosition position = CameraPosition.builder(mGoogleMap.getCameraPosition())
                         .target(latLng)
                         .bearing(location.getBearing())
-                        .zoom(sbZoom.getProgress() / 10.0f + 10.0f)
+                        .zoom(zoom)
                     .build();
 
+                // Decimate tracks for the new zoom level
+                if(logging)
+                {
+                    mGpsTrack.setZoom(zoom);
+                    mNetTrack.setZoom(zoom);
+                    mKalmanTrack.setZoom(zoom);
+                }
+
                 CameraUpdate update = CameraUpdateFactory.newCameraPosition(position);
                 mGoogleMap.animateCamera(update, 200, null);
 
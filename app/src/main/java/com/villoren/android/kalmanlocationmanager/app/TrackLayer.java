@@ -0,0 +1,151 @@
+/*
+ * TrackLayer
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.app;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A track drawn as a single {@link Polyline}, updated incrementally.
+ * <p>
+ * The whole track is kept in a primitive array, but only points at least {@link #MIN_PIXELS} apart at the
+ * current zoom level are drawn. The last point always follows the latest position. Changing the zoom level
+ * decimates the whole track again, so the drawn point count depends on distance and zoom, not on time.
+ */
+class TrackLayer {
+
+    /**
+     * Meters per pixel at zoom level 0 on the equator (Web Mercator, 256 pixel tiles).
+     */
+    private static final double METERS_PER_PIXEL_ZOOM_0 = 156543.03392;
+
+    /**
+     * Minimum screen distance between drawn points.
+     */
+    private static final double MIN_PIXELS = 2.0;
+
+    private static final double DEG_TO_METER = 111225.0;
+
+    private final Polyline mPolyline;
+
+    /**
+     * Whole track, as latitude/longitude pairs.
+     */
+    private double[] mTrack = new double[512];
+    private int mTrackSize;
+
+    /**
+     * Drawn points.
+     */
+    private final ArrayList<LatLng> mPoints = new ArrayList<>();
+
+    /**
+     * Zoom level the drawn points were decimated for, and the matching tolerance in meters.
+     */
+    private int mZoomLevel = -1;
+    private double mTolerance;
+
+    TrackLayer(GoogleMap map, int color, float width) {
+
+        mPolyline = map.addPolyline(new PolylineOptions()
+                .width(width)
+                .color(color));
+    }
+
+    /**
+     * Appends a position to the track.
+     */
+    void add(LatLng latLng) {
+
+        if (mTrackSize + 2 > mTrack.length)
+            mTrack = Arrays.copyOf(mTrack, mTrack.length * 2);
+
+        mTrack[mTrackSize++] = latLng.latitude;
+        mTrack[mTrackSize++] = latLng.longitude;
+
+        addPoint(latLng);
+        mPolyline.setPoints(mPoints);
+    }
+
+    /**
+     * Sets the zoom level of the camera, decimating the track again if the integer level changed.
+     */
+    void setZoom(float zoom) {
+
+        int zoomLevel = (int) zoom;
+
+        if (zoomLevel == mZoomLevel || mTrackSize == 0)
+            return;
+
+        mZoomLevel = zoomLevel;
+
+        double latitude = mTrack[mTrackSize - 2];
+        mTolerance = MIN_PIXELS * METERS_PER_PIXEL_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / (1 << zoomLevel);
+
+        mPoints.clear();
+
+        for (int i = 0; i < mTrackSize; i += 2)
+            addPoint(new LatLng(mTrack[i], mTrack[i + 1]));
+
+        mPolyline.setPoints(mPoints);
+    }
+
+    /**
+     * Removes the track from the map.
+     */
+    void remove() {
+
+        mPolyline.remove();
+    }
+
+    /**
+     * Appends the given point, or moves the last one to it if it is within tolerance of the one before.
+     */
+    private void addPoint(LatLng latLng) {
+
+        int size = mPoints.size();
+
+        if (size >= 2 && distance(mPoints.get(size - 2), latLng) < mTolerance)
+            mPoints.set(size - 1, latLng);
+        else
+            mPoints.add(latLng);
+    }
+
+    /**
+     * Equirectangular approximation, good enough at screen scale.
+     */
+    private static double distance(LatLng a, LatLng b) {
+
+        double north = (b.latitude - a.latitude) * DEG_TO_METER;
+        double east = (b.longitude - a.longitude) * DEG_TO_METER * Math.cos(Math.toRadians(a.latitude));
+
+        return Math.sqrt(north * north + east * east);
+    }
+}
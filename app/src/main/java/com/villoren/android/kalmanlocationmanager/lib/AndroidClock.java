@@ -0,0 +1,53 @@
+/*
+ * AndroidClock
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * {@link Clock} of the device: elapsed realtime and wall clock time.
+ */
+class AndroidClock implements Clock {
+
+    static final Clock INSTANCE = new AndroidClock();
+
+    private AndroidClock() {}
+
+    @Override
+    public long elapsedRealtimeNanos() {
+
+        if (Build.VERSION.SDK_INT >= 17)
+            return SystemClock.elapsedRealtimeNanos();
+
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    @Override
+    public long currentTimeMillis() { return System.currentTimeMillis(); }
+
+    @Override
+    public double getSpeedFactor() { return 1.0; }
+}
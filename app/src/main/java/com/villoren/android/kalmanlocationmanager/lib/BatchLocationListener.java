@@ -0,0 +1,49 @@
+/*
+ * BatchLocationListener
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.Location;
+import android.location.LocationListener;
+
+import java.util.List;
+
+/**
+ * A {@link LocationListener} that receives locations in batches.
+ * <p>
+ * Register it with {@link FilterOptions#batch(int, long)}. While batching, estimates and forwarded provider
+ * readings arrive through {@link #onLocationChanged(List)} only; status updates arrive as usual.
+ */
+public interface BatchLocationListener extends LocationListener {
+
+    /**
+     * Called in the client thread with the locations produced since the previous batch, oldest first.
+     *
+     * @param locations Estimates (provider {@link KalmanLocationManager#KALMAN_PROVIDER KALMAN_PROVIDER}) and
+     *                  provider readings. If estimates are recycled (see
+     *                  {@link FilterOptions#estimatePoolSize(int)}), the locations are not valid after this
+     *                  call returns. The list itself belongs to the listener.
+     */
+    void onLocationChanged(List<Location> locations);
+}
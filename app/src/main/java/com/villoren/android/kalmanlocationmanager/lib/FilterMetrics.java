@@ -0,0 +1,142 @@
+/*
+ * FilterMetrics
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters of the filter pipeline, for monitoring.
+ * <p>
+ * Pass an instance to {@link FilterOptions#metrics(FilterMetrics)} to collect them for a registration (or for
+ * several, sharing the instance). Nothing is measured for registrations without metrics. All durations are in
+ * nanoseconds. Thread safe; values can be read at any time from any thread.
+ */
+public class FilterMetrics {
+
+    private final LatencyHistogram mIngestToDispatchLatency = new LatencyHistogram();
+    private final LatencyHistogram mTickJitter = new LatencyHistogram();
+    private final LatencyHistogram mCallbackDuration = new LatencyHistogram();
+
+    private final ConcurrentHashMap<String, AtomicLong> mFixCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong mEstimateCount = new AtomicLong();
+    private final AtomicLong mCoalescedEstimateCount = new AtomicLong();
+
+    /**
+     * Time from a provider reading reaching the filter thread to the client's {@code onLocationChanged} being
+     * called with the first estimate that includes it.
+     */
+    public LatencyHistogram getIngestToDispatchLatency() { return mIngestToDispatchLatency; }
+
+    /**
+     * How late predictions fire compared with their schedule (a multiple of the filter interval).
+     * Millisecond resolution.
+     */
+    public LatencyHistogram getTickJitter() { return mTickJitter; }
+
+    /**
+     * Time spent in the client's {@code onLocationChanged}, per call (per batch when batching).
+     */
+    public LatencyHistogram getCallbackDuration() { return mCallbackDuration; }
+
+    /**
+     * @return Number of provider readings received from the given provider.
+     */
+    public long getFixCount(String provider) {
+
+        AtomicLong count = mFixCounts.get(provider);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return Number of provider readings received, per provider.
+     */
+    public Map<String, Long> getFixCounts() {
+
+        Map<String, Long> counts = new TreeMap<String, Long>();
+
+        for (Map.Entry<String, AtomicLong> entry : mFixCounts.entrySet())
+            counts.put(entry.getKey(), entry.getValue().get());
+
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return Number of estimates produced.
+     */
+    public long getEstimateCount() { return mEstimateCount.get(); }
+
+    /**
+     * @return Number of estimates replaced by newer ones before delivery (see
+     *         {@link FilterOptions#coalesceEstimates(boolean)}).
+     */
+    public long getCoalescedEstimateCount() { return mCoalescedEstimateCount.get(); }
+
+    /**
+     * Clears all histograms and counters.
+     */
+    public void reset() {
+
+        mIngestToDispatchLatency.reset();
+        mTickJitter.reset();
+        mCallbackDuration.reset();
+        mFixCounts.clear();
+        mEstimateCount.set(0);
+        mCoalescedEstimateCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+
+        return "FilterMetrics[fixes=" + getFixCounts()
+                + " estimates=" + getEstimateCount()
+                + " coalesced=" + getCoalescedEstimateCount()
+                + " ingestToDispatch={" + mIngestToDispatchLatency
+                + "} tickJitter={" + mTickJitter
+                + "} callback={" + mCallbackDuration + "}]";
+    }
+
+    void onFix(String provider) {
+
+        AtomicLong count = mFixCounts.get(provider);
+
+        if (count == null) {
+
+            AtomicLong previous = mFixCounts.putIfAbsent(provider, count = new AtomicLong());
+
+            if (previous != null)
+                count = previous;
+        }
+
+        count.incrementAndGet();
+    }
+
+    void onEstimate() { mEstimateCount.incrementAndGet(); }
+
+    void onCoalescedEstimate() { mCoalescedEstimateCount.incrementAndGet(); }
+}
@@ -0,0 +1,346 @@
+/*
+ * FilterOptions
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import com.villoren.android.kalmanlocationmanager.lib.log.AsyncTrackLogger;
+
+/**
+ * Optional settings for {@link KalmanLocationManager#requestLocationUpdates(KalmanLocationManager.UseProvider,
+ * long, long, long, android.location.LocationListener, boolean, FilterOptions) requestLocationUpdates}.
+ * <p>
+ * Setters return this instance, so calls can be chained. The defaults reproduce the plain
+ * requestLocationUpdates behavior.
+ */
+public class FilterOptions {
+
+    private int mEstimatePoolSize;
+    private boolean mCoalesceEstimates;
+    private int mMaxBatchSize;
+    private long mMaxBatchLatency;
+    private long mMaxTimeFilter;
+    private double mStationarySpeed;
+    private long mSuspendAfter;
+    private double mSuspendAccuracy;
+    private AsyncTrackLogger mTrackLogger;
+    private boolean mLocalFrame;
+    private int mSmoothingLag;
+    private FilterMetrics mMetrics;
+    private FilterObserver mObserver;
+    private double mGpsTargetAccuracy;
+    private long mGpsRelaxedInterval;
+
+    /**
+     * Recycle the {@link android.location.Location Location} objects delivered to the listener, so the steady
+     * state prediction and update paths allocate nothing.
+     * <p>
+     * When enabled, a Location passed to {@code onLocationChanged} is only valid until that call returns;
+     * copy it with {@code new Location(location)} to keep it. If the listener falls behind by more than
+     * {@code poolSize} objects, extra ones are allocated and left to the garbage collector.
+     *
+     * @param poolSize Maximum number of Location objects kept for reuse. 0 (the default) disables recycling.
+     * @return This instance.
+     */
+    public FilterOptions estimatePoolSize(int poolSize) {
+
+        if (poolSize < 0)
+            throw new IllegalArgumentException("poolSize can't be negative");
+
+        mEstimatePoolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * @return Maximum number of Location objects kept for reuse, 0 if recycling is disabled.
+     */
+    public int getEstimatePoolSize() { return mEstimatePoolSize; }
+
+    /**
+     * Deliver only the newest estimate to a listener that falls behind.
+     * <p>
+     * At most one estimate is queued in the client thread at any time; if a newer one is produced before it
+     * was delivered, the older one is dropped and counted (see
+     * {@link KalmanLocationManager#getDroppedEstimateCount(android.location.LocationListener)
+     * getDroppedEstimateCount}). Provider readings and status updates are always delivered.
+     *
+     * @param coalesce True to coalesce estimates. False by default.
+     * @return This instance.
+     */
+    public FilterOptions coalesceEstimates(boolean coalesce) {
+
+        mCoalesceEstimates = coalesce;
+        return this;
+    }
+
+    /**
+     * @return True if undelivered estimates are replaced by newer ones.
+     */
+    public boolean getCoalesceEstimates() { return mCoalesceEstimates; }
+
+    /**
+     * Deliver estimates and provider readings in batches, through
+     * {@link BatchLocationListener#onLocationChanged(java.util.List)}. The listener must be a
+     * {@link BatchLocationListener}.
+     * <p>
+     * A batch is delivered when it holds maxBatchSize locations, or maxLatency milliseconds after its first
+     * location was produced, whichever comes first. A pending batch is also delivered when updates are removed.
+     * Estimates are never coalesced while batching.
+     *
+     * @param maxBatchSize Maximum number of locations per batch. 0 (the default) disables batching.
+     * @param maxLatency Maximum time a location waits in a batch, in milliseconds.
+     * @return This instance.
+     */
+    public FilterOptions batch(int maxBatchSize, long maxLatency) {
+
+        if (maxBatchSize < 0)
+            throw new IllegalArgumentException("maxBatchSize can't be negative");
+
+        if (maxLatency < 0)
+            throw new IllegalArgumentException("maxLatency can't be negative");
+
+        mMaxBatchSize = maxBatchSize;
+        mMaxBatchLatency = maxLatency;
+        return this;
+    }
+
+    /**
+     * @return Maximum number of locations per batch, 0 if batching is disabled.
+     */
+    public int getMaxBatchSize() { return mMaxBatchSize; }
+
+    /**
+     * @return Maximum time a location waits in a batch, in milliseconds.
+     */
+    public long getMaxBatchLatency() { return mMaxBatchLatency; }
+
+    /**
+     * Adapt the prediction rate to motion.
+     * <p>
+     * While the estimated speed stays below stationarySpeed and the estimate accuracy is steady, the interval
+     * between predictions doubles after each one, up to maxTimeFilter. As soon as the speed reaches
+     * stationarySpeed (or the accuracy changes) it goes back to the minTimeFilter given to requestLocationUpdates.
+     *
+     * @param maxTimeFilter Maximum time interval between location estimates, in milliseconds.
+     *                      0 (the default) disables adaptation.
+     * @param stationarySpeed Speed below which the device is considered stationary, in meters per second.
+     * @return This instance.
+     */
+    public FilterOptions adaptiveRate(long maxTimeFilter, double stationarySpeed) {
+
+        if (maxTimeFilter < 0)
+            throw new IllegalArgumentException("maxTimeFilter can't be negative");
+
+        if (stationarySpeed < 0.0)
+            throw new IllegalArgumentException("stationarySpeed can't be negative");
+
+        mMaxTimeFilter = maxTimeFilter;
+        mStationarySpeed = stationarySpeed;
+        return this;
+    }
+
+    /**
+     * @return Maximum time interval between location estimates, in milliseconds. 0 if the rate is not adapted.
+     */
+    public long getMaxTimeFilter() { return mMaxTimeFilter; }
+
+    /**
+     * @return Speed below which the device is considered stationary, in meters per second.
+     */
+    public double getStationarySpeed() { return mStationarySpeed; }
+
+    /**
+     * Suspend predictions when measurements stop arriving.
+     * <p>
+     * After a prediction, the filter timer is parked if no provider reading arrived for suspendAfter
+     * milliseconds, or if the estimate accuracy is worse than maxAccuracy meters. The listener is told through
+     * {@code onStatusChanged(KALMAN_PROVIDER, LocationProvider.TEMPORARILY_UNAVAILABLE, extras)}.
+     * The next provider reading resumes predictions and is announced with {@code LocationProvider.AVAILABLE}.
+     *
+     * @param suspendAfter Maximum time without provider readings, in milliseconds. 0 (the default) disables it.
+     * @param maxAccuracy Maximum accuracy radius of the estimate, in meters. 0 (the default) disables it.
+     * @return This instance.
+     */
+    public FilterOptions suspendWhenIdle(long suspendAfter, double maxAccuracy) {
+
+        if (suspendAfter < 0)
+            throw new IllegalArgumentException("suspendAfter can't be negative");
+
+        if (maxAccuracy < 0.0)
+            throw new IllegalArgumentException("maxAccuracy can't be negative");
+
+        mSuspendAfter = suspendAfter;
+        mSuspendAccuracy = maxAccuracy;
+        return this;
+    }
+
+    /**
+     * @return Maximum time without provider readings before suspending, in milliseconds. 0 if disabled.
+     */
+    public long getSuspendAfter() { return mSuspendAfter; }
+
+    /**
+     * @return Maximum accuracy radius of the estimate before suspending, in meters. 0 if disabled.
+     */
+    public double getSuspendAccuracy() { return mSuspendAccuracy; }
+
+    /**
+     * Log every provider reading and estimate of the registration, from the filter thread.
+     * <p>
+     * The logger writes from its own thread, so storage stalls never reach the filter or the client thread.
+     * It is closed when updates are removed for the registration.
+     *
+     * @param trackLogger Logger, or null (the default) not to log.
+     * @return This instance.
+     */
+    public FilterOptions trackLogger(AsyncTrackLogger trackLogger) {
+
+        mTrackLogger = trackLogger;
+        return this;
+    }
+
+    /**
+     * @return Logger of readings and estimates, or null.
+     */
+    public AsyncTrackLogger getTrackLogger() { return mTrackLogger; }
+
+    /**
+     * Filter in meters, in a local east-north frame that follows the device, instead of in degrees.
+     * <p>
+     * Noise is then the same in every direction at any latitude, and no trigonometry is computed per reading
+     * (see {@link LocationFilter#LocationFilter(boolean)}).
+     *
+     * @param localFrame True to filter in a local frame. False by default.
+     * @return This instance.
+     */
+    public FilterOptions localFrame(boolean localFrame) {
+
+        mLocalFrame = localFrame;
+        return this;
+    }
+
+    /**
+     * @return True if filtering in a local east-north frame.
+     */
+    public boolean getLocalFrame() { return mLocalFrame; }
+
+    /**
+     * Also deliver fixed-lag smoothed estimates, with provider
+     * {@link KalmanLocationManager#SMOOTHED_PROVIDER SMOOTHED_PROVIDER}.
+     * <p>
+     * Each estimate is delivered again, smoothed with the next lag filter steps (predictions and provider
+     * readings), so it arrives about lag / 2 prediction intervals late when readings come at the prediction rate.
+     * Its elapsed realtime and time are those of the original estimate. Smoothed estimates are never coalesced,
+     * and the last ones of a registration are not delivered.
+     *
+     * @param lag Number of filter steps to wait before smoothing. 0 (the default) disables smoothing.
+     *            Memory and cost per step grow with it.
+     * @return This instance.
+     */
+    public FilterOptions smoothingLag(int lag) {
+
+        if (lag < 0)
+            throw new IllegalArgumentException("lag can't be negative");
+
+        mSmoothingLag = lag;
+        return this;
+    }
+
+    /**
+     * @return Number of filter steps before smoothing, 0 if smoothing is disabled.
+     */
+    public int getSmoothingLag() { return mSmoothingLag; }
+
+    /**
+     * Collect latency histograms and counters of the registration (see {@link FilterMetrics}).
+     *
+     * @param metrics Metrics to update, possibly shared with other registrations. Null (the default) not to
+     *                measure anything.
+     * @return This instance.
+     */
+    public FilterOptions metrics(FilterMetrics metrics) {
+
+        mMetrics = metrics;
+        return this;
+    }
+
+    /**
+     * @return Metrics of the registration, or null.
+     */
+    public FilterMetrics getMetrics() { return mMetrics; }
+
+    /**
+     * Report the innovation, its variance and the gains of every correction step, per axis.
+     * <p>
+     * The observer is called synchronously in the filter thread (not the client thread), and must not block.
+     *
+     * @param observer Observer, or null (the default) for none.
+     * @return This instance.
+     */
+    public FilterOptions observer(FilterObserver observer) {
+
+        mObserver = observer;
+        return this;
+    }
+
+    /**
+     * @return Observer of the correction steps, or null.
+     */
+    public FilterObserver getObserver() { return mObserver; }
+
+    /**
+     * Save power by duty-cycling GPS while the estimate is good enough.
+     * <p>
+     * While the estimate accuracy stays within targetAccuracy and both accuracy and speed are steady, GPS
+     * updates are requested every relaxedInterval milliseconds instead of minTimeGpsProvider, or not at all if
+     * relaxedInterval is 0. As soon as the accuracy grows beyond targetAccuracy, or the speed changes, fast GPS
+     * updates are requested again. Only applies when GPS is used.
+     *
+     * @param targetAccuracy Estimate accuracy to keep, in meters. 0 (the default) disables duty-cycling.
+     * @param relaxedInterval Minimum time interval between GPS updates while relaxed, in milliseconds.
+     *                        0 to stop GPS updates while relaxed.
+     * @return This instance.
+     */
+    public FilterOptions gpsDutyCycle(double targetAccuracy, long relaxedInterval) {
+
+        if (targetAccuracy < 0.0)
+            throw new IllegalArgumentException("targetAccuracy can't be negative");
+
+        if (relaxedInterval < 0)
+            throw new IllegalArgumentException("relaxedInterval can't be negative");
+
+        mGpsTargetAccuracy = targetAccuracy;
+        mGpsRelaxedInterval = relaxedInterval;
+        return this;
+    }
+
+    /**
+     * @return Estimate accuracy to keep while duty-cycling GPS, in meters. 0 if disabled.
+     */
+    public double getGpsTargetAccuracy() { return mGpsTargetAccuracy; }
+
+    /**
+     * @return Minimum time interval between GPS updates while relaxed, in milliseconds. 0 if GPS is stopped then.
+     */
+    public long getGpsRelaxedInterval() { return mGpsRelaxedInterval; }
+}
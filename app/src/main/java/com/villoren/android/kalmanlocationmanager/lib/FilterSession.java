@@ -0,0 +1,698 @@
+/*
+ * FilterSession
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationProvider;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import com.villoren.android.kalmanlocationmanager.lib.log.AsyncTrackLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.villoren.android.kalmanlocationmanager.lib.KalmanLocationManager.KALMAN_PROVIDER;
+
+/**
+ * A single registration of {@link KalmanLocationManager}: its prediction rate and delivery to its listener.
+ * <p>
+ * Runs on the filter thread shared by all registrations of the manager. Readings are filtered by the
+ * {@link SharedFilter} this session is attached to, and the prediction timer is delivered through a
+ * {@link Handler} on the given Looper. Prediction ticks are aligned to multiples of the filter interval, so
+ * registrations with equal intervals wake the thread once, and share one prediction step if they share a filter.
+ * <p>
+ * Created by Rena on 28/09/2014.
+ */
+class FilterSession
+{
+
+    // Static constant
+    private static final double STEADY_ACCURACY_CHANGE = 1.0;
+
+    private static final int MSG_PREDICT = 1;
+    private static final int MSG_LOCATION = 2;
+    private static final int MSG_LATEST_ESTIMATE = 3;
+    private static final int MSG_FLUSH_BATCH = 4;
+    private static final int MSG_BATCH = 5;
+
+    // Context
+    private final SharedFilter mSharedFilter;
+    private final Handler mClientHandler;
+    private final Clock mClock;
+
+    // Settings
+    private final long mMinTimeFilter;
+    private final LocationListener mClientLocationListener;
+    private final boolean mForwardProviderUpdates;
+
+    /**
+     * Pool of delivered Location objects, or null if they are not recycled.
+     */
+    private final LocationPool mLocationPool;
+
+    /**
+     * Whether undelivered estimates are replaced by newer ones.
+     */
+    private final boolean mCoalesceEstimates;
+
+    /**
+     * Newest estimate not yet taken by the client thread, when coalescing.
+     */
+    private final AtomicReference<Location> mPendingEstimate = new AtomicReference<Location>();
+
+    /**
+     * Number of estimates replaced before being delivered. Written by the filter thread only.
+     */
+    private volatile long mDroppedEstimates;
+
+    /**
+     * Metrics, or null if not measuring.
+     */
+    private final FilterMetrics mMetrics;
+
+    /**
+     * Arrival time (System.nanoTime) of the oldest reading not yet included in a delivered estimate, 0 if none.
+     * Only accessed in the filter thread.
+     */
+    private long mIngestNanos;
+
+    /**
+     * Ingest time carried by the pending coalesced estimate, and by the current batch, 0 if none.
+     */
+    private final AtomicLong mPendingIngestNanos = new AtomicLong();
+    private long mBatchIngestNanos;
+
+    /**
+     * Batching settings, mMaxBatchSize is 0 if not batching.
+     */
+    private final int mMaxBatchSize;
+    private final long mMaxBatchLatency;
+
+    /**
+     * Locations waiting to be delivered as a batch. Only accessed in the filter thread.
+     */
+    private ArrayList<Location> mBatch;
+
+    /**
+     * Adaptive rate settings, mMaxTimeFilter is 0 if the rate is fixed.
+     */
+    private final long mMaxTimeFilter;
+    private final double mStationarySpeed;
+
+    /**
+     * Current interval between predictions and time of the next one (clock millis).
+     */
+    private long mTimeFilter;
+    private long mNextPredictionTime;
+
+    /**
+     * Accuracy of the previous estimate, to tell whether it is steady.
+     */
+    private double mLastAccuracy;
+
+    /**
+     * Suspension settings, 0 if disabled.
+     */
+    private final long mSuspendAfter;
+    private final double mSuspendAccuracy;
+
+    /**
+     * Time of the last provider reading (clock millis), and whether predictions are parked.
+     */
+    private long mLastReadingTime;
+    private boolean mSuspended;
+
+    /**
+     * Logger of readings and estimates, or null. Only used in the filter thread.
+     */
+    private final AsyncTrackLogger mTrackLogger;
+    private final Fix mLogFix = new Fix((String) null);
+
+    // Thread
+    private final Handler mOwnHandler;
+
+    /**
+     * Latitude, longitude and altitude trackers, shared with other sessions.
+     */
+    private final LocationFilter mFilter;
+
+    /**
+     *
+     * @param sharedFilter Filter this session will be attached to.
+     * @param clock Clock estimates are stamped with.
+     * @param looper Looper of the shared filter thread.
+     * @param minTimeFilter
+     * @param locationListener
+     * @param forwardProviderUpdates
+     * @param options
+     */
+    FilterSession(
+            SharedFilter sharedFilter,
+            Clock clock,
+            Looper looper,
+            long minTimeFilter,
+            LocationListener locationListener,
+            boolean forwardProviderUpdates,
+            FilterOptions options)
+    {
+        mSharedFilter = sharedFilter;
+        mClientHandler = new Handler(mClientHandlerCallback);
+        mClock = clock;
+
+        mMinTimeFilter = minTimeFilter;
+
+        mClientLocationListener = locationListener;
+        mForwardProviderUpdates = forwardProviderUpdates;
+
+        mLocationPool = options.getEstimatePoolSize() > 0 ? new LocationPool(options.getEstimatePoolSize()) : null;
+        mCoalesceEstimates = options.getCoalesceEstimates();
+        mMaxBatchSize = options.getMaxBatchSize();
+        mMaxBatchLatency = options.getMaxBatchLatency();
+        mMaxTimeFilter = options.getMaxTimeFilter() > 0 ? Math.max(options.getMaxTimeFilter(), minTimeFilter) : 0;
+        mStationarySpeed = options.getStationarySpeed();
+        mTimeFilter = minTimeFilter;
+        mSuspendAfter = options.getSuspendAfter();
+        mSuspendAccuracy = options.getSuspendAccuracy();
+        mTrackLogger = options.getTrackLogger();
+        mFilter = sharedFilter.getFilter();
+        mMetrics = options.getMetrics();
+
+        mOwnHandler = new Handler(looper, mOwnHandlerCallback);
+    }
+
+    /**
+     * Starts predictions right away, for a session attached to a filter that already has readings.
+     */
+    void start() {
+
+        mLastReadingTime = now();
+        scheduleNextPrediction();
+    }
+
+    /**
+     * Stops this session, once detached from its filter.
+     */
+    void stop() {
+
+        // No more predictions. Deliver what is left.
+        mOwnHandler.removeCallbacksAndMessages(null);
+        flushBatch();
+
+        if (mTrackLogger != null)
+            mTrackLogger.close();
+    }
+
+    /**
+     * @return Number of estimates dropped because a newer one replaced them before delivery.
+     */
+    public long getDroppedEstimateCount() { return mDroppedEstimates; }
+
+    /**
+     * @return Filter this session is attached to.
+     */
+    SharedFilter getSharedFilter() { return mSharedFilter; }
+
+    /**
+     * @return Metrics of this session, or null.
+     */
+    public FilterMetrics getMetrics() { return mMetrics; }
+
+    /**
+     * @return Current time on the session clock, in milliseconds.
+     */
+    private long now() {
+
+        return mClock.elapsedRealtimeNanos() / 1000000L;
+    }
+
+    /**
+     * @return Real time delay after which the session clock will have moved by the given amount, in milliseconds.
+     */
+    private long toRealDelay(long clockMillis) {
+
+        return (long) Math.ceil(Math.max(0, clockMillis) / mClock.getSpeedFactor());
+    }
+
+    /**
+     * Schedules the next prediction at the next multiple of the current filter interval, on the session clock.
+     */
+    private void scheduleNextPrediction() {
+
+        long now = now();
+
+        mNextPredictionTime = mTimeFilter > 0 ? (now / mTimeFilter + 1) * mTimeFilter : now;
+        mOwnHandler.sendEmptyMessageDelayed(MSG_PREDICT, toRealDelay(mNextPredictionTime - now));
+    }
+
+    /**
+     * @return True if no reading arrived for too long, or the estimate is too inaccurate to keep predicting.
+     */
+    private boolean shouldSuspend() {
+
+        if (mSuspendAfter > 0 && now() - mLastReadingTime > mSuspendAfter)
+            return true;
+
+        return mSuspendAccuracy > 0.0 && mFilter.getAccuracy() > mSuspendAccuracy;
+    }
+
+    /**
+     * Posts a status update to the client (UI) thread.
+     */
+    private void dispatchStatus(final String provider, final int status, final Bundle extras) {
+
+        mClientHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                mClientLocationListener.onStatusChanged(provider, status, extras);
+            }
+        });
+    }
+
+    /**
+     * Adaptive rate: slows predictions down while stationary and steady, back to full rate otherwise.
+     *
+     * @param predicted Whether called after a prediction (or after a correction).
+     */
+    private void adaptTimeFilter(boolean predicted) {
+
+        if (mMaxTimeFilter == 0)
+            return;
+
+        boolean moving = mFilter.getSpeed() >= mStationarySpeed;
+
+        if (predicted) {
+
+            double accuracy = mFilter.getAccuracy();
+            boolean steady = !moving && Math.abs(accuracy - mLastAccuracy) < STEADY_ACCURACY_CHANGE;
+
+            mLastAccuracy = accuracy;
+            mTimeFilter = steady ? Math.min(Math.max(mTimeFilter * 2, 1), mMaxTimeFilter) : mMinTimeFilter;
+
+        } else if (moving && mTimeFilter != mMinTimeFilter) {
+
+            // Motion resumed: don't wait for a slow pending prediction
+            mTimeFilter = mMinTimeFilter;
+
+            if (mOwnHandler.hasMessages(MSG_PREDICT)
+                    && mNextPredictionTime > now() + mMinTimeFilter) {
+
+                mOwnHandler.removeMessages(MSG_PREDICT);
+                scheduleNextPrediction();
+            }
+        }
+    }
+
+    /**
+     * @return A Location to be delivered to the client, recycled if possible.
+     */
+    private Location obtainLocation(String provider) {
+
+        return mLocationPool != null ? mLocationPool.obtain(provider) : new Location(provider);
+    }
+
+    /**
+     * Delivers the given Location to the client (UI) thread, as configured in the options.
+     *
+     * @param location Location to deliver.
+     * @param estimate Whether it is a filter estimate (or a provider reading).
+     */
+    private void deliver(Location location, boolean estimate) {
+
+        // The first estimate after some readings carries the arrival time of the oldest one
+        long ingestNanos = 0;
+
+        if (estimate && mMetrics != null) {
+
+            mMetrics.onEstimate();
+            ingestNanos = mIngestNanos;
+            mIngestNanos = 0;
+        }
+
+        if (mMaxBatchSize > 0)
+            batchLocation(location, ingestNanos);
+        else if (estimate && mCoalesceEstimates)
+            dispatchLatestEstimate(location, ingestNanos);
+        else
+            dispatchLocation(location, ingestNanos);
+    }
+
+    /**
+     * Adds the given Location to the current batch, delivering it if full.
+     */
+    private void batchLocation(Location location, long ingestNanos) {
+
+        if (mBatchIngestNanos == 0)
+            mBatchIngestNanos = ingestNanos;
+
+        if (mBatch == null) {
+
+            mBatch = new ArrayList<Location>(mMaxBatchSize);
+            mOwnHandler.sendEmptyMessageDelayed(MSG_FLUSH_BATCH, toRealDelay(mMaxBatchLatency));
+        }
+
+        mBatch.add(location);
+
+        if (mBatch.size() >= mMaxBatchSize)
+            flushBatch();
+    }
+
+    /**
+     * Delivers the current batch, if any, to the client (UI) thread.
+     */
+    private void flushBatch() {
+
+        mOwnHandler.removeMessages(MSG_FLUSH_BATCH);
+
+        if (mBatch == null)
+            return;
+
+        obtainMessage(MSG_BATCH, mBatchIngestNanos, mBatch).sendToTarget();
+        mBatch = null;
+        mBatchIngestNanos = 0;
+    }
+
+    /**
+     * Delivers the given Location to the client (UI) thread, through a pooled Message.
+     */
+    private void dispatchLocation(Location location, long ingestNanos) {
+
+        obtainMessage(MSG_LOCATION, ingestNanos, location).sendToTarget();
+    }
+
+    /**
+     * @return A pooled Message to the client thread, carrying the given ingest time in arg1 (high bits) and arg2.
+     */
+    private Message obtainMessage(int what, long ingestNanos, Object obj) {
+
+        return Message.obtain(mClientHandler, what, (int) (ingestNanos >>> 32), (int) ingestNanos, obj);
+    }
+
+    /**
+     * Delivers the given estimate to the client (UI) thread, replacing the pending one if not yet delivered.
+     */
+    private void dispatchLatestEstimate(Location location, long ingestNanos) {
+
+        if (ingestNanos != 0)
+            mPendingIngestNanos.compareAndSet(0, ingestNanos);
+
+        Location previous = mPendingEstimate.getAndSet(location);
+
+        if (previous == null) {
+
+            Message.obtain(mClientHandler, MSG_LATEST_ESTIMATE).sendToTarget();
+
+        } else {
+
+            mDroppedEstimates++;
+
+            if (mMetrics != null)
+                mMetrics.onCoalescedEstimate();
+
+            if (mLocationPool != null)
+                mLocationPool.recycle(previous);
+        }
+    }
+
+    /**
+     * Delivers the given smoothed estimate, completed by the last filter step.
+     */
+    void onSmoothedEstimate(Fix smoothedFix) {
+
+        Location location = obtainLocation(LocationFilter.SMOOTHED_PROVIDER);
+        LocationConverter.toLocation(smoothedFix, location);
+
+        // Same wall time as the original estimate
+        long age = (mClock.elapsedRealtimeNanos() - smoothedFix.getElapsedRealtimeNanos()) / 1000000;
+        location.setTime(mClock.currentTimeMillis() - age);
+
+        if (mTrackLogger != null)
+            mTrackLogger.log(LocationConverter.toFix(location, mLogFix));
+
+        deliver(location, false);
+    }
+
+    /**
+     * A reading is about to be filtered.
+     */
+    void onReadingArrived() {
+
+        if (mMetrics != null && mIngestNanos == 0)
+            mIngestNanos = System.nanoTime();
+    }
+
+    /**
+     * A reading was filtered.
+     */
+    void onReading(Location location) {
+
+        if (mMetrics != null)
+            mMetrics.onFix(location.getProvider());
+
+        if (mTrackLogger != null)
+            mTrackLogger.log(LocationConverter.toFix(location, mLogFix));
+
+        // Forward update if requested
+        if (mForwardProviderUpdates) {
+
+            Location copy = obtainLocation(location.getProvider());
+            copy.set(location);
+            deliver(copy, false);
+        }
+
+        // Resume predictions
+        mLastReadingTime = now();
+
+        if (mSuspended) {
+
+            mSuspended = false;
+            dispatchStatus(KALMAN_PROVIDER, LocationProvider.AVAILABLE, new Bundle());
+        }
+
+        // Enable filter timer if this is our first measurement
+        if (!mOwnHandler.hasMessages(MSG_PREDICT))
+            scheduleNextPrediction();
+        else
+            adaptTimeFilter(false);
+    }
+
+    /**
+     * Forwards a provider status update.
+     */
+    void onStatusChanged(String provider, int status, Bundle extras) {
+
+        dispatchStatus(provider, status, extras);
+    }
+
+    /**
+     * Forwards a provider enabled update.
+     */
+    void onProviderEnabled(final String provider) {
+
+        mClientHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                mClientLocationListener.onProviderEnabled(provider);
+            }
+        });
+    }
+
+    /**
+     * Forwards a provider disabled update.
+     */
+    void onProviderDisabled(final String provider) {
+
+        mClientHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                mClientLocationListener.onProviderDisabled(provider);
+            }
+        });
+    }
+
+    private Handler.Callback mOwnHandlerCallback = new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message msg) {
+
+            // Batch latency expired
+            if (msg.what == MSG_FLUSH_BATCH) {
+
+                flushBatch();
+                return true;
+            }
+
+            // Real delays are rounded, so an accelerated clock may not have reached the tick yet: wait for it
+            long early = mNextPredictionTime - now();
+
+            if (early > 0) {
+
+                mOwnHandler.sendEmptyMessageDelayed(MSG_PREDICT, toRealDelay(early));
+                return true;
+            }
+
+            // Jitter in real time, whatever the clock speed
+            if (mMetrics != null)
+                mMetrics.getTickJitter().record((long) ((now() - mNextPredictionTime) * 1e6 / mClock.getSpeedFactor()));
+
+            // Prepare location
+            final Location location = obtainLocation(KALMAN_PROVIDER);
+            final Location lastLocation = mSharedFilter.getLastLocation();
+            final long elapsedRealtimeNanos = mSharedFilter.predict(mNextPredictionTime);
+
+            location.setLatitude(mFilter.getLatitude());
+            location.setLongitude(mFilter.getLongitude());
+
+            // Altitude
+            if (lastLocation.hasAltitude())
+                location.setAltitude(mFilter.getAltitude());
+
+            // Speed
+            if (lastLocation.hasSpeed())
+                location.setSpeed(lastLocation.getSpeed());
+
+            // Bearing
+            if (lastLocation.hasBearing())
+                location.setBearing(lastLocation.getBearing());
+
+            // Accuracy (always has)
+            location.setAccuracy((float) mFilter.getAccuracy());
+
+            // Set times
+            location.setTime(mClock.currentTimeMillis());
+
+            if (Build.VERSION.SDK_INT >= 17)
+                location.setElapsedRealtimeNanos(elapsedRealtimeNanos);
+
+            if (mTrackLogger != null)
+                mTrackLogger.log(LocationConverter.toFix(location, mLogFix));
+
+            // Post the update in the client (UI) thread
+            deliver(location, true);
+
+            // Enqueue next prediction, unless measurements stopped
+            mOwnHandler.removeMessages(MSG_PREDICT);
+
+            if (shouldSuspend()) {
+
+                // Readings must be able to resume predictions
+                mSharedFilter.restoreGps();
+
+                mSuspended = true;
+                dispatchStatus(KALMAN_PROVIDER, LocationProvider.TEMPORARILY_UNAVAILABLE, new Bundle());
+                return true;
+            }
+
+            adaptTimeFilter(true);
+            scheduleNextPrediction();
+
+            return true;
+        }
+    };
+
+    /**
+     * Runs in the client (UI) thread.
+     */
+    @SuppressWarnings("unchecked")
+    private void deliverBatch(Object obj) {
+
+        List<Location> batch = (List<Location>) obj;
+
+        ((BatchLocationListener) mClientLocationListener).onLocationChanged(batch);
+
+        if (mLocationPool != null) {
+
+            for (int i = 0; i < batch.size(); i++)
+                mLocationPool.recycle(batch.get(i));
+        }
+    }
+
+    /**
+     * Runs in the client (UI) thread. Posted Runnables (status updates) are handled by the Handler itself.
+     */
+    private Handler.Callback mClientHandlerCallback = new Handler.Callback() {
+
+        @Override
+        public boolean handleMessage(Message msg) {
+
+            Location location = null;
+            long ingestNanos = ((long) msg.arg1 << 32) | (msg.arg2 & 0xFFFFFFFFL);
+
+            switch (msg.what) {
+
+                case MSG_LOCATION:
+                    location = (Location) msg.obj;
+                    break;
+
+                case MSG_LATEST_ESTIMATE:
+                    location = mPendingEstimate.getAndSet(null);
+                    ingestNanos = mPendingIngestNanos.getAndSet(0);
+                    break;
+
+                case MSG_BATCH:
+                    break;
+
+                default:
+                    return false;
+            }
+
+            if (location == null && msg.what != MSG_BATCH)
+                return true;
+
+            long start = mMetrics != null ? System.nanoTime() : 0;
+
+            if (mMetrics != null && ingestNanos != 0)
+                mMetrics.getIngestToDispatchLatency().record(start - ingestNanos);
+
+            if (msg.what == MSG_BATCH)
+                deliverBatch(msg.obj);
+            else
+                mClientLocationListener.onLocationChanged(location);
+
+            if (mMetrics != null)
+                mMetrics.getCallbackDuration().record(System.nanoTime() - start);
+
+            if (location == null)
+                return true;
+
+            if (mLocationPool != null)
+                mLocationPool.recycle(location);
+
+            return true;
+        }
+    };
+}
@@ -26,27 +26,43 @@ package com.villoren.android.kalmanlocationmanager.lib;
 
 import android.content.Context;
 import android.location.LocationListener;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Provides a means of requesting location updates.
  * <p>
  * Similar to Android's {@link android.location.LocationManager LocationManager}.
+ * <p>
+ * All registrations of an instance are served by a single filter thread, started with the first
+ * registration and stopped after the last one is removed.
  */
 public class KalmanLocationManager {
 
     /**
      * Specifies which of the native location providers to use, or a combination of them.
+     * <p>
+     * The PASSIVE modes feed the filter with the fixes other applications requested
+     * ({@link android.location.LocationManager#PASSIVE_PROVIDER PASSIVE_PROVIDER}), at no extra power cost,
+     * optionally combined with an active provider, typically at a low rate.
      */
-    public enum UseProvider { GPS, NET, GPS_AND_NET }
+    public enum UseProvider { GPS, NET, GPS_AND_NET, PASSIVE, PASSIVE_AND_NET, PASSIVE_AND_GPS }
 
     /**
      * Provider string assigned to predicted Location objects.
      */
-    public static final String KALMAN_PROVIDER = "kalman";
+    public static final String KALMAN_PROVIDER = LocationFilter.KALMAN_PROVIDER;
+
+    /**
+     * Provider string assigned to fixed-lag smoothed Location objects (see {@link FilterOptions#smoothingLag(int)}).
+     */
+    public static final String SMOOTHED_PROVIDER = LocationFilter.SMOOTHED_PROVIDER;
 
     /**
      * Logger tag.
@@ -59,9 +75,29 @@ public class KalmanLocationManager {
     private final Context mContext;
 
     /**
-     * Map that associates provided LocationListeners with created LooperThreads.
+     * Where provider readings come from.
+     */
+    private final LocationSource mLocationSource;
+
+    /**
+     * Clock estimates are stamped with.
+     */
+    private final Clock mClock;
+
+    /**
+     * Map that associates provided LocationListeners with created FilterSessions.
+     */
+    private final Map<LocationListener, FilterSession> mListener2Session;
+
+    /**
+     * Filters in use, each shared by the sessions with the same providers and filter settings.
      */
-    private final Map<LocationListener, LooperThread> mListener2Thread;
+    private final List<SharedFilter> mSharedFilters;
+
+    /**
+     * Filter thread shared by all sessions. Null while there are no sessions.
+     */
+    private HandlerThread mFilterThread;
 
     /**
      * Constructor.
@@ -70,8 +106,27 @@ public class KalmanLocationManager {
      */
     public KalmanLocationManager(Context context) {
 
+        this(context, new SystemLocationSource(context), AndroidClock.INSTANCE);
+    }
+
+    /**
+     * Constructor for simulation: readings come from the given source, and prediction timers and estimates run on
+     * the given clock. See {@link SimulatedLocationSource}.
+     *
+     * @param context The Context for this KalmanLocationManager.
+     * @param locationSource Source of provider readings.
+     * @param clock Clock on the time line of the readings, with a positive speed factor.
+     */
+    public KalmanLocationManager(Context context, LocationSource locationSource, Clock clock) {
+
+        if (!(clock.getSpeedFactor() > 0.0))
+            throw new IllegalArgumentException("clock must be running");
+
         mContext = context;
-        mListener2Thread = new HashMap<LocationListener, LooperThread>();
+        mLocationSource = locationSource;
+        mClock = clock;
+        mListener2Session = new HashMap<LocationListener, FilterSession>();
+        mSharedFilters = new ArrayList<SharedFilter>();
     }
 
     /**
@@ -85,10 +140,10 @@ public class KalmanLocationManager {
      *                      thus the frequency of callbacks to be received by the given location listener.
      *
      * @param minTimeGpsProvider Minimum time interval between GPS readings, in milliseconds.
-     *                           If {@link UseProvider#NET UseProvider.NET} was set, this value is ignored.
+     *                           Ignored unless GPS is used.
      *
      * @param minTimeNetProvider Minimum time interval between Network readings, in milliseconds.
-     *                           If {@link UseProvider#GPS UseProvider.GPS} was set, this value is ignored.
+     *                           Ignored unless Network is used.
      *
      * @param listener A {@link android.location.LocationListener LocationListener} whose
      *                 {@link android.location.LocationListener#onLocationChanged(android.location.Location) onLocationChanged(Location)}
@@ -106,6 +161,28 @@ public class KalmanLocationManager {
             long minTimeNetProvider,
             LocationListener listener,
             boolean forwardProviderReadings)
+    {
+        requestLocationUpdates(
+                useProvider, minTimeFilter, minTimeGpsProvider, minTimeNetProvider,
+                listener, forwardProviderReadings, new FilterOptions());
+    }
+
+    /**
+     * Register for {@link android.location.Location Location} estimates using the given LocationListener callback,
+     * with optional settings.
+     *
+     * @param options Optional settings, see {@link FilterOptions}.
+     *
+     * @see #requestLocationUpdates(UseProvider, long, long, long, LocationListener, boolean)
+     */
+    public void requestLocationUpdates(
+            UseProvider useProvider,
+            long minTimeFilter,
+            long minTimeGpsProvider,
+            long minTimeNetProvider,
+            LocationListener listener,
+            boolean forwardProviderReadings,
+            FilterOptions options)
     {
         // Validate arguments
         if (useProvider == null)
@@ -114,6 +191,12 @@ public class KalmanLocationManager {
         if (listener == null)
             throw new IllegalArgumentException("listener can't be null");
 
+        if (options == null)
+            throw new IllegalArgumentException("options can't be null");
+
+        if (options.getMaxBatchSize() > 0 && !(listener instanceof BatchLocationListener))
+            throw new IllegalArgumentException("batching requires a BatchLocationListener");
+
         if (minTimeFilter < 0) {
 
             Log.w(TAG, "minTimeFilter < 0. Setting to 0");
@@ -133,17 +216,72 @@ public class KalmanLocationManager {
         }
 
         // Remove this listener if it is already in use
-        if (mListener2Thread.containsKey(listener)) {
+        if (mListener2Session.containsKey(listener)) {
 
             Log.d(TAG, "Requested location updates with a listener that is already in use. Removing.");
             removeUpdates(listener);
         }
 
-        LooperThread looperThread = new LooperThread(
-                mContext, useProvider, minTimeFilter, minTimeGpsProvider, minTimeNetProvider,
-                listener, forwardProviderReadings);
+        // Start the shared filter thread with the first session
+        if (mFilterThread == null) {
+
+            mFilterThread = new HandlerThread(TAG);
+            mFilterThread.start();
+        }
+
+        // Registrations with the same providers and filter settings share one filter
+        SharedFilter sharedFilter = null;
+
+        for (SharedFilter candidate : mSharedFilters) {
+
+            if (candidate.matches(useProvider, minTimeGpsProvider, minTimeNetProvider, options)) {
+
+                sharedFilter = candidate;
+                break;
+            }
+        }
+
+        if (sharedFilter == null) {
+
+            sharedFilter = new SharedFilter(
+                    mContext, mLocationSource, mClock, mFilterThread.getLooper(),
+                    useProvider, minTimeGpsProvider, minTimeNetProvider, options);
+
+            mSharedFilters.add(sharedFilter);
+        }
+
+        FilterSession filterSession = new FilterSession(
+                sharedFilter, mClock, mFilterThread.getLooper(), minTimeFilter,
+                listener, forwardProviderReadings, options);
+
+        sharedFilter.attach(filterSession);
+
+        mListener2Session.put(listener, filterSession);
+    }
+
+    /**
+     * Number of estimates that were not delivered to the given listener because a newer one replaced them.
+     * Always 0 unless {@link FilterOptions#coalesceEstimates(boolean) coalesceEstimates} was requested.
+     *
+     * @param listener A listener registered in this instance.
+     * @return Dropped estimates since the listener was registered, 0 if it is not registered.
+     */
+    public long getDroppedEstimateCount(LocationListener listener) {
+
+        FilterSession filterSession = mListener2Session.get(listener);
+        return filterSession == null ? 0 : filterSession.getDroppedEstimateCount();
+    }
+
+    /**
+     * Metrics of the given listener's registration, if requested with {@link FilterOptions#metrics(FilterMetrics)}.
+     *
+     * @param listener A listener registered in this instance.
+     * @return Metrics of the registration, null if it has none or the listener is not registered.
+     */
+    public FilterMetrics getMetrics(LocationListener listener) {
 
-        mListener2Thread.put(listener, looperThread);
+        FilterSession filterSession = mListener2Session.get(listener);
+        return filterSession == null ? null : filterSession.getMetrics();
     }
 
     /**
@@ -155,14 +293,33 @@ public class KalmanLocationManager {
      */
     public void removeUpdates(LocationListener listener) {
 
-        LooperThread looperThread = mListener2Thread.remove(listener);
+        FilterSession filterSession = mListener2Session.remove(listener);
 
-        if (looperThread == null) {
+        if (filterSession == null) {
 
             Log.d(TAG, "Did not remove updates for given LocationListener. Wasn't registered in this instance.");
             return;
         }
 
-        looperThread.close();
+        SharedFilter sharedFilter = filterSession.getSharedFilter();
+
+        if (sharedFilter.detach(filterSession))
+            mSharedFilters.remove(sharedFilter);
+
+        // Stop the shared filter thread after the last session. Pending messages (the session's detach) run first.
+        if (mListener2Session.isEmpty()) {
+
+            final HandlerThread filterThread = mFilterThread;
+            mFilterThread = null;
+
+            new Handler(filterThread.getLooper()).post(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    filterThread.quit();
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * LocationConverter
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.Location;
+import android.os.Build;
+
+/**
+ * Copies values between Android {@link Location} objects and the platform independent {@link Fix}.
+ */
+public final class LocationConverter {
+
+    private LocationConverter() { }
+
+    /**
+     * Copies the given Location into the given Fix.
+     *
+     * @return The given Fix.
+     */
+    public static Fix toFix(Location location, Fix fix) {
+
+        fix.reset();
+        fix.setProvider(location.getProvider());
+        fix.setTime(location.getTime());
+        fix.setLatitude(location.getLatitude());
+        fix.setLongitude(location.getLongitude());
+        fix.setAccuracy(location.getAccuracy());
+
+        if (Build.VERSION.SDK_INT >= 17)
+            fix.setElapsedRealtimeNanos(location.getElapsedRealtimeNanos());
+
+        if (location.hasAltitude())
+            fix.setAltitude(location.getAltitude());
+
+        if (location.hasSpeed())
+            fix.setSpeed(location.getSpeed());
+
+        if (location.hasBearing())
+            fix.setBearing(location.getBearing());
+
+        return fix;
+    }
+
+    /**
+     * Copies the given Fix into the given Location.
+     *
+     * @return The given Location.
+     */
+    public static Location toLocation(Fix fix, Location location) {
+
+        location.reset();
+        location.setProvider(fix.getProvider());
+        location.setTime(fix.getTime());
+        location.setLatitude(fix.getLatitude());
+        location.setLongitude(fix.getLongitude());
+        location.setAccuracy(fix.getAccuracy());
+
+        if (Build.VERSION.SDK_INT >= 17)
+            location.setElapsedRealtimeNanos(fix.getElapsedRealtimeNanos());
+
+        if (fix.hasAltitude())
+            location.setAltitude(fix.getAltitude());
+
+        if (fix.hasSpeed())
+            location.setSpeed(fix.getSpeed());
+
+        if (fix.hasBearing())
+            location.setBearing(fix.getBearing());
+
+        return location;
+    }
+}
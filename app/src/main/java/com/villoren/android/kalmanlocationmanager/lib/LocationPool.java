@@ -0,0 +1,81 @@
+/*
+ * LocationPool
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.Location;
+
+/**
+ * Bounded pool of {@link Location} objects, shared by the filter thread (obtain) and the client thread (recycle).
+ */
+class LocationPool {
+
+    private final Location[] mPool;
+    private int mSize;
+
+    /**
+     * @param capacity Maximum number of objects kept for reuse.
+     */
+    LocationPool(int capacity) {
+
+        mPool = new Location[capacity];
+    }
+
+    /**
+     * @param provider Provider to set.
+     * @return A Location from the pool, or a new one if the pool is empty. Values are undefined, except provider.
+     */
+    Location obtain(String provider) {
+
+        Location location = null;
+
+        synchronized (this) {
+
+            if (mSize > 0) {
+
+                location = mPool[--mSize];
+                mPool[mSize] = null;
+            }
+        }
+
+        if (location == null)
+            return new Location(provider);
+
+        location.reset();
+        location.setProvider(provider);
+        return location;
+    }
+
+    /**
+     * Returns the given Location to the pool. Dropped if the pool is full.
+     */
+    void recycle(Location location) {
+
+        synchronized (this) {
+
+            if (mSize < mPool.length)
+                mPool[mSize++] = location;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * LocationSource
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.LocationListener;
+import android.os.Looper;
+
+/**
+ * Where a {@link KalmanLocationManager} gets provider readings from. The platform
+ * {@link android.location.LocationManager LocationManager} by default, or a {@link SimulatedLocationSource}.
+ */
+public interface LocationSource {
+
+    /**
+     * Register for readings of the given provider, as in
+     * {@link android.location.LocationManager#requestLocationUpdates(String, long, float, LocationListener, Looper)}.
+     * Registering an already registered listener replaces its previous request.
+     *
+     * @param provider Provider name.
+     * @param minTime Minimum time interval between readings, in milliseconds.
+     * @param listener Callback for readings.
+     * @param looper Looper the listener is called on.
+     * @throws SecurityException If the app lacks the permission to use the provider.
+     */
+    void requestLocationUpdates(String provider, long minTime, LocationListener listener, Looper looper);
+
+    /**
+     * Removes all requests of the given listener.
+     *
+     * @throws SecurityException If the app lacks location permissions.
+     */
+    void removeUpdates(LocationListener listener);
+}
@@ -0,0 +1,575 @@
+/*
+ * SharedFilter
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.Manifest;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+
+import static com.villoren.android.kalmanlocationmanager.lib.KalmanLocationManager.UseProvider;
+
+/**
+ * Filter shared by the registrations of {@link KalmanLocationManager} that use the same providers, provider
+ * intervals and filter settings.
+ * <p>
+ * Owns the provider subscriptions and the {@link LocationFilter}: each reading is filtered once and then handed to
+ * every attached {@link FilterSession}, which keeps its own prediction rate and delivery settings. Predictions
+ * requested for the same tick, with no reading in between, are computed once.
+ * <p>
+ * Everything but {@link #matches}, {@link #attach} and {@link #detach} runs on the filter thread.
+ */
+class SharedFilter
+{
+
+    // Static constant
+    private static final double STEADY_ACCURACY_CHANGE = 1.0;
+    private static final double STEADY_SPEED_CHANGE = 1.0;
+
+    // Context
+    private final Context mContext;
+    private final LocationSource mLocationSource;
+    private final Clock mClock;
+
+    // Settings
+    private final UseProvider mUseProvider;
+    private final long mMinTimeGpsProvider;
+    private final long mMinTimeNetProvider;
+    private final boolean mLocalFrame;
+    private final int mSmoothingLag;
+    private final FilterObserver mObserver;
+
+    /**
+     * GPS duty-cycle settings, mGpsTargetAccuracy is 0 if disabled.
+     */
+    private final double mGpsTargetAccuracy;
+    private final long mGpsRelaxedInterval;
+
+    /**
+     * Whether GPS updates are currently slowed down (or stopped), and the estimate at the previous check.
+     */
+    private boolean mGpsRelaxed;
+    private double mGpsLastAccuracy, mGpsLastSpeed;
+
+    /**
+     * Time of the last GPS, Network and other reading, to drop passive duplicates. Only used in passive modes.
+     */
+    private final long[] mLastReadingTimes = { Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE };
+
+    /**
+     * Smoothed estimate, when smoothing.
+     */
+    private final Fix mSmoothedFix = new Fix((String) null);
+
+    /**
+     * Number of attached sessions, only accessed in the client thread.
+     */
+    private int mAttachCount;
+
+    /**
+     * Attached sessions, only accessed in the filter thread.
+     */
+    private final ArrayList<FilterSession> mSessions = new ArrayList<FilterSession>();
+
+    /**
+     * Tick (clock millis) and time (filter clock) of the last prediction, and whether a reading came after it.
+     */
+    private long mPredictionTick = Long.MIN_VALUE;
+    private long mPredictionNanos;
+    private boolean mPredictionStale = true;
+
+    // Thread
+    private final Looper mLooper;
+    private final Handler mOwnHandler;
+    private Location mLastLocation;
+
+    /**
+     * Latitude, longitude and altitude trackers.
+     */
+    private final LocationFilter mFilter;
+
+    /**
+     * @param context
+     * @param locationSource Source of provider readings.
+     * @param clock Clock of the readings.
+     * @param looper Looper of the shared filter thread.
+     * @param useProvider
+     * @param minTimeGpsProvider
+     * @param minTimeNetProvider
+     * @param options Options of the first registration. Only the filter settings are used.
+     */
+    SharedFilter(
+            Context context,
+            LocationSource locationSource,
+            Clock clock,
+            Looper looper,
+            UseProvider useProvider,
+            long minTimeGpsProvider,
+            long minTimeNetProvider,
+            FilterOptions options)
+    {
+        mContext = context;
+        mLocationSource = locationSource;
+        mClock = clock;
+
+        mUseProvider = useProvider;
+        mMinTimeGpsProvider = minTimeGpsProvider;
+        mMinTimeNetProvider = minTimeNetProvider;
+        mLocalFrame = options.getLocalFrame();
+        mSmoothingLag = options.getSmoothingLag();
+        mObserver = options.getObserver();
+        mGpsTargetAccuracy = options.getGpsTargetAccuracy();
+        mGpsRelaxedInterval = options.getGpsRelaxedInterval();
+
+        mFilter = new LocationFilter(mLocalFrame, mSmoothingLag);
+        mFilter.setObserver(mObserver);
+
+        mLooper = looper;
+        mOwnHandler = new Handler(mLooper);
+    }
+
+    /**
+     * @return True if a registration with the given settings can share this filter.
+     */
+    boolean matches(UseProvider useProvider, long minTimeGpsProvider, long minTimeNetProvider, FilterOptions options) {
+
+        return mUseProvider == useProvider
+                && (!usesGps() || mMinTimeGpsProvider == minTimeGpsProvider)
+                && (!usesNet() || mMinTimeNetProvider == minTimeNetProvider)
+                && mLocalFrame == options.getLocalFrame()
+                && mSmoothingLag == options.getSmoothingLag()
+                && mObserver == options.getObserver()
+                && mGpsTargetAccuracy == options.getGpsTargetAccuracy()
+                && mGpsRelaxedInterval == options.getGpsRelaxedInterval();
+    }
+
+    /**
+     * Attaches the given session. Provider updates start with the first one. Called in the client thread.
+     */
+    void attach(final FilterSession session) {
+
+        mAttachCount++;
+
+        mOwnHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                mSessions.add(session);
+
+                if (mSessions.size() == 1)
+                    requestProviderUpdates();
+                else if (mLastLocation != null)
+                    session.start();
+            }
+        });
+    }
+
+    /**
+     * Detaches and stops the given session. Provider updates stop with the last one. Called in the client thread.
+     *
+     * @return True if no sessions are left, so this filter must not be attached to anymore.
+     */
+    boolean detach(final FilterSession session) {
+
+        mOwnHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+
+                mSessions.remove(session);
+                session.stop();
+
+                if (mSessions.isEmpty())
+                    removeProviderUpdates();
+            }
+        });
+
+        return --mAttachCount == 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void requestProviderUpdates()
+    {
+
+        if (usesGps())
+        {
+
+            if (mContext.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
+                    mContext.checkSelfPermission(Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED)
+            {
+                return;
+            }
+            mLocationSource.requestLocationUpdates(
+                    LocationManager.GPS_PROVIDER, mMinTimeGpsProvider, mGpsLocationListener, mLooper);
+        }
+
+        if (usesNet())
+        {
+
+            mLocationSource.requestLocationUpdates(
+                    LocationManager.NETWORK_PROVIDER, mMinTimeNetProvider, mOwnLocationListener, mLooper);
+        }
+
+        if (usesPassive())
+        {
+
+            if (mContext.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED)
+            {
+                return;
+            }
+            mLocationSource.requestLocationUpdates(
+                    LocationManager.PASSIVE_PROVIDER, 0, mPassiveLocationListener, mLooper);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void removeProviderUpdates()
+    {
+
+        if (mContext.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
+                mContext.checkSelfPermission(Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED)
+        {
+            return;
+        }
+        mLocationSource.removeUpdates(mGpsLocationListener);
+        mLocationSource.removeUpdates(mOwnLocationListener);
+        mLocationSource.removeUpdates(mPassiveLocationListener);
+    }
+
+    /**
+     * @return True if GPS updates are requested by this filter.
+     */
+    private boolean usesGps() {
+
+        return mUseProvider == UseProvider.GPS
+                || mUseProvider == UseProvider.GPS_AND_NET
+                || mUseProvider == UseProvider.PASSIVE_AND_GPS;
+    }
+
+    /**
+     * @return True if Network updates are requested by this filter.
+     */
+    private boolean usesNet() {
+
+        return mUseProvider == UseProvider.NET
+                || mUseProvider == UseProvider.GPS_AND_NET
+                || mUseProvider == UseProvider.PASSIVE_AND_NET;
+    }
+
+    /**
+     * @return True if passive updates are requested by this filter.
+     */
+    private boolean usesPassive() {
+
+        return mUseProvider == UseProvider.PASSIVE
+                || mUseProvider == UseProvider.PASSIVE_AND_NET
+                || mUseProvider == UseProvider.PASSIVE_AND_GPS;
+    }
+
+    /**
+     * Tells whether readings of the given provider are requested by this filter. The passive provider also delivers
+     * them, in either order with the requested copy, so both copies must be weighted the same.
+     */
+    private boolean requests(String provider) {
+
+        return LocationManager.GPS_PROVIDER.equals(provider) ? usesGps()
+                : LocationManager.NETWORK_PROVIDER.equals(provider) && usesNet();
+    }
+
+    /**
+     * Tells whether the given reading was already received, as the passive provider also delivers the readings
+     * requested by this filter. Remembers it otherwise.
+     */
+    private boolean isDuplicate(Location location) {
+
+        String provider = location.getProvider();
+        int index = LocationManager.GPS_PROVIDER.equals(provider) ? 0
+                : LocationManager.NETWORK_PROVIDER.equals(provider) ? 1 : 2;
+
+        if (location.getTime() == mLastReadingTimes[index])
+            return true;
+
+        mLastReadingTimes[index] = location.getTime();
+        return false;
+    }
+
+    /**
+     * GPS duty-cycle: slows GPS down (or stops it) while the estimate is accurate and steady, back to full rate
+     * as soon as it is not.
+     */
+    private void dutyCycleGps() {
+
+        if (mGpsTargetAccuracy == 0.0 || !usesGps())
+            return;
+
+        double accuracy = mFilter.getAccuracy();
+        double speed = mFilter.getSpeed();
+
+        boolean accurate = accuracy <= mGpsTargetAccuracy;
+        boolean steadySpeed = Math.abs(speed - mGpsLastSpeed) < STEADY_SPEED_CHANGE;
+        boolean steady = steadySpeed && Math.abs(accuracy - mGpsLastAccuracy) < STEADY_ACCURACY_CHANGE;
+
+        mGpsLastAccuracy = accuracy;
+        mGpsLastSpeed = speed;
+
+        if (!mGpsRelaxed && accurate && steady)
+            setGpsRelaxed(true);
+        else if (mGpsRelaxed && (!accurate || !steadySpeed))
+            setGpsRelaxed(false);
+    }
+
+    /**
+     * Back to full rate GPS updates if they were slowed down, so readings can resume a suspended session.
+     */
+    void restoreGps() {
+
+        if (mGpsRelaxed)
+            setGpsRelaxed(false);
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private void setGpsRelaxed(boolean relaxed) {
+
+        if (mContext.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
+                mContext.checkSelfPermission(Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED)
+        {
+            return;
+        }
+
+        mGpsRelaxed = relaxed;
+
+        if (relaxed && mGpsRelaxedInterval == 0) {
+
+            mLocationSource.removeUpdates(mGpsLocationListener);
+
+        } else {
+
+            mLocationSource.requestLocationUpdates(
+                    LocationManager.GPS_PROVIDER,
+                    relaxed ? mGpsRelaxedInterval : mMinTimeGpsProvider,
+                    mGpsLocationListener,
+                    mLooper);
+        }
+    }
+
+    /**
+     * @return The filter, to read estimates from.
+     */
+    LocationFilter getFilter() { return mFilter; }
+
+    /**
+     * @return The preferred last reading, null before the first one.
+     */
+    Location getLastLocation() { return mLastLocation; }
+
+    /**
+     * Prediction step for the given tick, unless already done for it with no reading since.
+     *
+     * @param tick Scheduled time of the prediction (clock millis).
+     * @return Time of the prediction, on the filter clock.
+     */
+    long predict(long tick) {
+
+        if (tick == mPredictionTick && !mPredictionStale)
+            return mPredictionNanos;
+
+        mPredictionTick = tick;
+        mPredictionNanos = mClock.elapsedRealtimeNanos();
+        mPredictionStale = false;
+
+        mFilter.predict(mPredictionNanos, mLastLocation.hasAltitude());
+
+        deliverSmoothedEstimate();
+        dutyCycleGps();
+
+        return mPredictionNanos;
+    }
+
+    /**
+     * @return Time the given reading was taken, on the filter clock. Falls back to now if not available.
+     */
+    private long elapsedRealtimeNanos(Location location) {
+
+        if (Build.VERSION.SDK_INT >= 17 && location.getElapsedRealtimeNanos() > 0)
+            return location.getElapsedRealtimeNanos();
+
+        return mClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Hands the smoothed estimate completed by the last filter step, if any, to all sessions.
+     */
+    private void deliverSmoothedEstimate() {
+
+        if (!mFilter.getSmoothedEstimate(mSmoothedFix))
+            return;
+
+        for (int i = 0; i < mSessions.size(); i++)
+            mSessions.get(i).onSmoothedEstimate(mSmoothedFix);
+    }
+
+    /**
+     * Filters the given reading, and hands it to all sessions.
+     *
+     * @param passive Whether it was received through the passive provider. Readings of a provider requested by
+     *                this filter are trusted either way, as whichever copy arrives first is the one filtered.
+     */
+    private void onReading(Location location, boolean passive) {
+
+        if (usesPassive() && isDuplicate(location))
+            return;
+
+        boolean untrusted = passive && !requests(location.getProvider());
+
+        for (int i = 0; i < mSessions.size(); i++)
+            mSessions.get(i).onReadingArrived();
+
+        mFilter.update(
+                elapsedRealtimeNanos(location),
+                location.getLatitude(),
+                location.getLongitude(),
+                location.hasAltitude(),
+                location.getAltitude(),
+                LocationFilter.getMeasurementNoise(location.getProvider(), location.getAccuracy(), untrusted));
+
+        mPredictionStale = true;
+
+        // Update last location
+        if (LocationFilter.isPreferred(
+                location.getProvider(), mLastLocation == null ? null : mLastLocation.getProvider())) {
+
+            if (mLastLocation == null)
+                mLastLocation = new Location(location);
+            else
+                mLastLocation.set(location);
+        }
+
+        for (int i = 0; i < mSessions.size(); i++)
+            mSessions.get(i).onReading(location);
+
+        deliverSmoothedEstimate();
+    }
+
+    private LocationListener mOwnLocationListener = new LocationListener() {
+
+        @Override
+        public void onLocationChanged(Location location) {
+
+            onReading(location, false);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+
+            for (int i = 0; i < mSessions.size(); i++)
+                mSessions.get(i).onStatusChanged(provider, status, extras);
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+
+            for (int i = 0; i < mSessions.size(); i++)
+                mSessions.get(i).onProviderEnabled(provider);
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+
+            for (int i = 0; i < mSessions.size(); i++)
+                mSessions.get(i).onProviderDisabled(provider);
+        }
+    };
+
+    /**
+     * Passive updates go through their own listener, so they can be told apart: readings keep the name of the
+     * provider that produced them.
+     */
+    private LocationListener mPassiveLocationListener = new LocationListener() {
+
+        @Override
+        public void onLocationChanged(Location location) {
+
+            onReading(location, true);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+
+            mOwnLocationListener.onStatusChanged(provider, status, extras);
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+
+            mOwnLocationListener.onProviderEnabled(provider);
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+
+            mOwnLocationListener.onProviderDisabled(provider);
+        }
+    };
+
+    /**
+     * GPS updates go through their own listener, so they can be slowed down or removed independently.
+     */
+    private LocationListener mGpsLocationListener = new LocationListener() {
+
+        @Override
+        public void onLocationChanged(Location location) {
+
+            mOwnLocationListener.onLocationChanged(location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+
+            mOwnLocationListener.onStatusChanged(provider, status, extras);
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+
+            mOwnLocationListener.onProviderEnabled(provider);
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+
+            mOwnLocationListener.onProviderDisabled(provider);
+        }
+    };
+}
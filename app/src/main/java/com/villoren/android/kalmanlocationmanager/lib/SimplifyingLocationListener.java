@@ -0,0 +1,122 @@
+/*
+ * SimplifyingLocationListener
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Bundle;
+
+/**
+ * A {@link LocationListener} that passes only the estimates that matter to another listener.
+ * <p>
+ * Estimates (provider {@link KalmanLocationManager#KALMAN_PROVIDER KALMAN_PROVIDER}) go through a
+ * {@link TrackSimplifier}; on straight segments most of them are dropped. Smoothed estimates (provider
+ * {@link KalmanLocationManager#SMOOTHED_PROVIDER SMOOTHED_PROVIDER}) are a separate, lagging track, simplified
+ * on their own with the same settings. Provider readings and status
+ * updates are passed through unchanged. Register this listener instead of the wrapped one, and call
+ * {@link #flush()} when the track ends, so the latest estimate is not lost.
+ * <p>
+ * Delivered estimates are new Location objects, which the wrapped listener may keep.
+ */
+public class SimplifyingLocationListener implements LocationListener {
+
+    private final LocationListener mListener;
+    private final TrackSimplifier mSimplifier;
+    private final TrackSimplifier mSmoothedSimplifier;
+
+    private final Fix mFix = new Fix(KalmanLocationManager.KALMAN_PROVIDER);
+
+    /**
+     * @param listener Listener receiving the simplified track.
+     * @param tolerance Maximum distance, in meters, from a dropped estimate to the simplified track.
+     */
+    public SimplifyingLocationListener(LocationListener listener, double tolerance) {
+
+        this(listener, new TrackSimplifier(tolerance));
+    }
+
+    /**
+     * @param listener Listener receiving the simplified track.
+     * @param simplifier Simplification stage. It must not be shared.
+     */
+    public SimplifyingLocationListener(LocationListener listener, TrackSimplifier simplifier) {
+
+        if (listener == null)
+            throw new IllegalArgumentException("listener == null");
+
+        if (simplifier == null)
+            throw new IllegalArgumentException("simplifier == null");
+
+        mListener = listener;
+        mSimplifier = simplifier;
+        mSmoothedSimplifier = simplifier.newSimplifier();
+    }
+
+    /**
+     * Delivers the latest estimates, if they were held back. Call in the thread receiving the locations.
+     */
+    public void flush() {
+
+        deliver(mSimplifier.flush());
+        deliver(mSmoothedSimplifier.flush());
+    }
+
+    public TrackSimplifier getSimplifier() { return mSimplifier; }
+
+    @Override
+    public void onLocationChanged(Location location) {
+
+        if (KalmanLocationManager.KALMAN_PROVIDER.equals(location.getProvider()))
+            deliver(mSimplifier.add(LocationConverter.toFix(location, mFix)));
+        else if (KalmanLocationManager.SMOOTHED_PROVIDER.equals(location.getProvider()))
+            deliver(mSmoothedSimplifier.add(LocationConverter.toFix(location, mFix)));
+        else
+            mListener.onLocationChanged(location);
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+
+        mListener.onStatusChanged(provider, status, extras);
+    }
+
+    @Override
+    public void onProviderEnabled(String provider) {
+
+        mListener.onProviderEnabled(provider);
+    }
+
+    @Override
+    public void onProviderDisabled(String provider) {
+
+        mListener.onProviderDisabled(provider);
+    }
+
+    private void deliver(Fix fix) {
+
+        if (fix != null)
+            mListener.onLocationChanged(LocationConverter.toLocation(fix, new Location(fix.getProvider())));
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * SimulatedLocationSource
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import com.villoren.android.kalmanlocationmanager.lib.replay.FixSource;
+import com.villoren.android.kalmanlocationmanager.lib.sim.VirtualClock;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link LocationSource} that plays readings from a {@link FixSource}, for instance a
+ * {@link com.villoren.android.kalmanlocationmanager.lib.sim.SyntheticTrack SyntheticTrack}, instead of the
+ * device providers.
+ * <p>
+ * Playback starts with the first registration and stops when the last listener is removed or the source runs
+ * out. The given {@link VirtualClock} must be running: readings are delivered when it reaches their recorded times,
+ * so playback runs at the clock's speed factor, and the clock is moved to each reading's time before it is delivered.
+ * A {@link KalmanLocationManager} built with the same clock runs its timers and stamps its estimates on the
+ * simulated time line. The minTime of requests is ignored: readings are
+ * delivered as recorded. Passive listeners receive all readings.
+ */
+public class SimulatedLocationSource implements LocationSource {
+
+    private static final String TAG = SimulatedLocationSource.class.getSimpleName();
+
+    private final FixSource mSource;
+    private final VirtualClock mClock;
+
+    private final Map<LocationListener, Registration> mRegistrations;
+    private final Fix mFix;
+
+    private Handler mPlaybackHandler;
+    private boolean mPending;
+    private boolean mStarted;
+
+    /**
+     * @param source Readings to play, in ascending time order.
+     * @param clock Clock that paces playback, with a positive speed factor.
+     */
+    public SimulatedLocationSource(FixSource source, VirtualClock clock) {
+
+        if (!(clock.getSpeedFactor() > 0.0))
+            throw new IllegalArgumentException("clock must be running");
+
+        mSource = source;
+        mClock = clock;
+
+        mRegistrations = new HashMap<LocationListener, Registration>();
+        mFix = new Fix(LocationManager.GPS_PROVIDER);
+    }
+
+    @Override
+    public synchronized void requestLocationUpdates(String provider, long minTime, LocationListener listener, Looper looper) {
+
+        Registration registration = mRegistrations.get(listener);
+
+        if (registration == null) {
+
+            registration = new Registration(listener, new Handler(looper));
+            mRegistrations.put(listener, registration);
+        }
+
+        if (LocationManager.PASSIVE_PROVIDER.equals(provider))
+            registration.mPassive = true;
+        else if (LocationManager.GPS_PROVIDER.equals(provider))
+            registration.mGps = true;
+        else
+            registration.mNetwork = true;
+
+        if (mPlaybackHandler == null) {
+
+            mPlaybackHandler = new Handler(looper);
+            schedule();
+        }
+    }
+
+    @Override
+    public synchronized void removeUpdates(LocationListener listener) {
+
+        mRegistrations.remove(listener);
+
+        if (mRegistrations.isEmpty() && mPlaybackHandler != null) {
+
+            mPlaybackHandler.removeCallbacks(mPlayback);
+            mPlaybackHandler = null;
+            mPending = false;
+        }
+    }
+
+    /**
+     * Reads the next fix and posts its delivery. Must hold the lock.
+     */
+    private void schedule() {
+
+        try {
+
+            if (!mSource.next(mFix)) {
+
+                mPending = false;
+                return;
+            }
+
+        } catch (IOException e) {
+
+            Log.w(TAG, "Playback stopped", e);
+            mPending = false;
+            return;
+        }
+
+        // The first reading starts playback at once; the clock jumps to it on delivery
+        long delayMillis = 0;
+
+        if (mStarted)
+            delayMillis = Math.max(0, (long) Math.ceil((mFix.getElapsedRealtimeNanos() - mClock.elapsedRealtimeNanos())
+                    / 1e6 / mClock.getSpeedFactor()));
+
+        mStarted = true;
+        mPending = true;
+        mPlaybackHandler.postDelayed(mPlayback, delayMillis);
+    }
+
+    private final Runnable mPlayback = new Runnable() {
+
+        @Override
+        public void run() {
+
+            synchronized (SimulatedLocationSource.this) {
+
+                if (!mPending)
+                    return;
+
+                mClock.advanceTo(mFix.getElapsedRealtimeNanos());
+
+                boolean gps = LocationManager.GPS_PROVIDER.equals(mFix.getProvider());
+
+                // Active requests first, as the platform does; passive listeners see the reading after them
+                for (Registration registration : mRegistrations.values()) {
+
+                    if (gps ? registration.mGps : registration.mNetwork)
+                        registration.deliver(createLocation());
+                }
+
+                for (Registration registration : mRegistrations.values()) {
+
+                    if (registration.mPassive)
+                        registration.deliver(createLocation());
+                }
+
+                schedule();
+            }
+        }
+    };
+
+    /**
+     * @return A new Location with the current reading, stamped with the clock.
+     */
+    private Location createLocation() {
+
+        Location location = LocationConverter.toLocation(mFix, new Location(mFix.getProvider()));
+        location.setTime(mClock.currentTimeMillis());
+        return location;
+    }
+
+    /**
+     * Listener, the looper it runs on and the providers it requested.
+     */
+    private static class Registration {
+
+        final LocationListener mListener;
+        final Handler mHandler;
+
+        boolean mGps;
+        boolean mNetwork;
+        boolean mPassive;
+
+        Registration(LocationListener listener, Handler handler) {
+
+            mListener = listener;
+            mHandler = handler;
+        }
+
+        void deliver(final Location location) {
+
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    mListener.onLocationChanged(location);
+                }
+            });
+        }
+    }
+}
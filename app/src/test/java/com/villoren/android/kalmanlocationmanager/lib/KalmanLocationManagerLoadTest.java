@@ -0,0 +1,215 @@
+/*
+ * KalmanLocationManagerLoadTest
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import android.Manifest;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+
+import com.villoren.android.kalmanlocationmanager.app.BuildConfig;
+import com.villoren.android.kalmanlocationmanager.lib.sim.SyntheticTrack;
+import com.villoren.android.kalmanlocationmanager.lib.sim.VirtualClock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RoboSettings;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.Scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs many simulated devices through {@link KalmanLocationManager} at a multiple of real time.
+ * <p>
+ * Each device has its own manager, fed by a {@link SimulatedLocationSource} playing a {@link SyntheticTrack}. All
+ * of them share one running {@link VirtualClock}. Loopers share the Robolectric scheduler, which is advanced
+ * with real time, so Handler delays and the virtual clock move together as they would on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class KalmanLocationManagerLoadTest {
+
+    private static final int DEVICES = 20;
+    private static final double SPEED_FACTOR = 20.0;
+    private static final long MIN_TIME_FILTER = 1000;
+    private static final long START_TIME = 1400000000000L;
+
+    /**
+     * Bounds checked by the test: 99th percentile of the time from a reading to the first estimate including it
+     * (at most one filter interval, in real time, plus slack), and tolerance of the estimate count.
+     */
+    private static final long MAX_LATENCY_NANOS = (long) (MIN_TIME_FILTER * 1e6 / SPEED_FACTOR) + 50000000L;
+    private static final double ESTIMATE_TOLERANCE = 0.05;
+
+    /**
+     * Real time given to the managers after the end of the tracks, and after removing their listeners, in
+     * milliseconds.
+     */
+    private static final long DRAIN_MILLIS = 500;
+
+    @Before
+    public void setUp() {
+
+        // Filter and playback loopers run on the test thread, from the scheduler driven below
+        RoboSettings.setUseGlobalScheduler(true);
+
+        shadowOf(RuntimeEnvironment.application).grantPermissions(
+                Manifest.permission.ACCESS_FINE_LOCATION, Manifest.permission.ACCESS_COARSE_LOCATION);
+    }
+
+    @After
+    public void tearDown() {
+
+        RoboSettings.setUseGlobalScheduler(false);
+    }
+
+    @Test
+    public void keepsUpWithManyDevices() throws InterruptedException {
+
+        VirtualClock clock = new VirtualClock(START_TIME, SPEED_FACTOR);
+
+        KalmanLocationManager[] managers = new KalmanLocationManager[DEVICES];
+        CountingListener[] listeners = new CountingListener[DEVICES];
+        FilterMetrics[] metrics = new FilterMetrics[DEVICES];
+
+        for (int device = 0; device < DEVICES; device++) {
+
+            managers[device] = new KalmanLocationManager(
+                    RuntimeEnvironment.application, new SimulatedLocationSource(createTrack(device), clock), clock);
+            listeners[device] = new CountingListener();
+            metrics[device] = new FilterMetrics();
+
+            managers[device].requestLocationUpdates(
+                    KalmanLocationManager.UseProvider.GPS_AND_NET, MIN_TIME_FILTER, 0, 0, listeners[device], false,
+                    new FilterOptions().metrics(metrics[device]));
+        }
+
+        long duration = createTrack(0).getDuration();
+        long start = System.nanoTime();
+
+        run(start, (long) (duration / SPEED_FACTOR) + DRAIN_MILLIS * 1000000L);
+
+        // One estimate per interval while registered
+        long expectedEstimates = clock.elapsedRealtimeNanos() / 1000000L / MIN_TIME_FILTER;
+
+        for (int device = 0; device < DEVICES; device++)
+            managers[device].removeUpdates(listeners[device]);
+
+        run(start, System.nanoTime() - start + DRAIN_MILLIS * 1000000L);
+
+        for (int device = 0; device < DEVICES; device++) {
+
+            int[] expectedFixes = countFixes(createTrack(device));
+
+            // Throughput: every reading reached the filter, and estimates came at the requested rate
+            assertEquals("GPS readings of device " + device,
+                    expectedFixes[0], metrics[device].getFixCount(LocationManager.GPS_PROVIDER));
+            assertEquals("Network readings of device " + device,
+                    expectedFixes[1], metrics[device].getFixCount(LocationManager.NETWORK_PROVIDER));
+            assertTrue("Estimates of device " + device + ": " + listeners[device].mEstimates,
+                    Math.abs(listeners[device].mEstimates - expectedEstimates)
+                            <= expectedEstimates * ESTIMATE_TOLERANCE);
+
+            // Latency
+            assertTrue("Latency of device " + device + ": " + metrics[device].getIngestToDispatchLatency(),
+                    metrics[device].getIngestToDispatchLatency().getValueAtPercentile(99.0) <= MAX_LATENCY_NANOS);
+        }
+    }
+
+    /**
+     * @return Track of the given device: a few minutes of driving with GPS and Network readings.
+     */
+    private static SyntheticTrack createTrack(int device) {
+
+        return new SyntheticTrack(device, 48.0 + device * 0.01, 2.0, device * 7.0)
+                .startTime(START_TIME)
+                .straight(60000, 15.0)
+                .turn(30000, 10.0, 3.0)
+                .stop(30000)
+                .straight(60000, 20.0);
+    }
+
+    /**
+     * @return Number of GPS and Network readings of the given track.
+     */
+    private static int[] countFixes(SyntheticTrack track) {
+
+        int[] counts = new int[2];
+        Fix fix = new Fix(LocationManager.GPS_PROVIDER);
+
+        while (track.next(fix))
+            counts[LocationManager.GPS_PROVIDER.equals(fix.getProvider()) ? 0 : 1]++;
+
+        return counts;
+    }
+
+    /**
+     * Advances the scheduler along with real time, until the given real time since start.
+     */
+    private static void run(long start, long until) throws InterruptedException {
+
+        Scheduler scheduler = RuntimeEnvironment.getMasterScheduler();
+        long schedulerStart = scheduler.getCurrentTime() - (System.nanoTime() - start) / 1000000L;
+        long now;
+
+        while ((now = System.nanoTime() - start) < until) {
+
+            scheduler.advanceTo(schedulerStart + now / 1000000L);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Counts estimates.
+     */
+    private static final class CountingListener implements LocationListener {
+
+        long mEstimates;
+
+        @Override
+        public void onLocationChanged(Location location) {
+
+            if (KalmanLocationManager.KALMAN_PROVIDER.equals(location.getProvider()))
+                mEstimates++;
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) { }
+
+        @Override
+        public void onProviderEnabled(String provider) { }
+
+        @Override
+        public void onProviderDisabled(String provider) { }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * FilterBenchmark
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.benchmark;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.LocationFilter;
+import com.villoren.android.kalmanlocationmanager.lib.Tracker1D;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot paths of the filter.
+ * <p>
+ * {@link #timedLocationUpdate} is the correction done by {@code SharedFilter.onReading} and
+ * {@link #timedPredictionTick} the prediction done by {@code SharedFilter.predict} on each
+ * {@code FilterSession} tick, both without the Android {@code Location} and {@code Handler} parts, which can't
+ * run on the JVM. Real delta times go through the delta time cache of {@link Tracker1D}:
+ * {@link #timedPredictionTickCacheMiss} misses it on every call. {@link #locationUpdate} and
+ * {@link #predictionTick} are the fixed step paths.
+ * Run with {@code gradlew :benchmark:jmh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FilterBenchmark {
+
+    /**
+     * Number of precomputed readings, a power of two.
+     */
+    private static final int READINGS = 1024;
+
+    // Precomputed readings, so the JIT can't fold constants
+    private final double[] mLatitudes = new double[READINGS];
+    private final double[] mLongitudes = new double[READINGS];
+    private final double[] mAltitudes = new double[READINGS];
+    private final float[] mAccuracies = new float[READINGS];
+    private int mIndex;
+
+    private Tracker1D mTracker;
+    private LocationFilter mFilter;
+
+    // Filter on real delta times, and its clock
+    private LocationFilter mTimedFilter;
+    private long mNanos;
+    private Fix mLast;
+    private Fix mEstimate;
+
+    @Setup
+    public void setup() {
+
+        Random random = new Random(42);
+
+        for (int i = 0; i < READINGS; i++) {
+
+            mLatitudes[i] = -34.6 + random.nextGaussian() * 1e-4;
+            mLongitudes[i] = -58.4 + random.nextGaussian() * 1e-4;
+            mAltitudes[i] = 25.0 + random.nextGaussian() * 5.0;
+            mAccuracies[i] = 5.0f + random.nextFloat() * 20.0f;
+        }
+
+        mTracker = new Tracker1D(1.0, 4.0 / LocationFilter.DEG_TO_METER);
+        mTracker.setState(mLatitudes[0], 0.0, mAccuracies[0] * LocationFilter.METER_TO_DEG);
+
+        mFilter = new LocationFilter();
+        mFilter.update(mLatitudes[0], mLongitudes[0], true, mAltitudes[0], mAccuracies[0]);
+
+        mTimedFilter = new LocationFilter();
+        mTimedFilter.update(mNanos, mLatitudes[0], mLongitudes[0], true, mAltitudes[0], mAccuracies[0]);
+
+        mLast = new Fix(LocationFilter.GPS_PROVIDER);
+        mLast.setLatitude(mLatitudes[0]);
+        mLast.setLongitude(mLongitudes[0]);
+        mLast.setAltitude(mAltitudes[0]);
+        mLast.setSpeed(1.0f);
+        mLast.setBearing(90.0f);
+
+        mEstimate = new Fix(LocationFilter.KALMAN_PROVIDER);
+    }
+
+    private int next() {
+
+        return mIndex = (mIndex + 1) & (READINGS - 1);
+    }
+
+    @Benchmark
+    public double trackerPredict() {
+
+        mTracker.predict(0.0);
+        return mTracker.getPosition();
+    }
+
+    @Benchmark
+    public double trackerPredictDt() {
+
+        // Alternates between a few jittered delta times, as real ticks do
+        mTracker.predict(0.0, 0.2 + (next() & 3) * 0.001);
+        return mTracker.getPosition();
+    }
+
+    @Benchmark
+    public double trackerUpdate() {
+
+        int i = next();
+        mTracker.update(mLatitudes[i], mAccuracies[i] * LocationFilter.METER_TO_DEG);
+        return mTracker.getPosition();
+    }
+
+    @Benchmark
+    public void locationUpdate(Blackhole blackhole) {
+
+        int i = next();
+        mFilter.update(mLatitudes[i], mLongitudes[i], true, mAltitudes[i], mAccuracies[i]);
+        blackhole.consume(mFilter.getLatitude());
+        blackhole.consume(mFilter.getLongitude());
+    }
+
+    @Benchmark
+    public Fix predictionTick() {
+
+        mFilter.predict(true);
+        mFilter.getEstimate(mEstimate, mLast);
+        return mEstimate;
+    }
+
+    @Benchmark
+    public void timedLocationUpdate(Blackhole blackhole) {
+
+        // GPS readings a second apart, a few milliseconds of jitter: a handful of cached delta times
+        int i = next();
+        mNanos += (1000 + (i & 3)) * 1000000L;
+        mTimedFilter.update(mNanos, mLatitudes[i], mLongitudes[i], true, mAltitudes[i], mAccuracies[i]);
+        blackhole.consume(mTimedFilter.getLatitude());
+        blackhole.consume(mTimedFilter.getLongitude());
+    }
+
+    @Benchmark
+    public Fix timedPredictionTick() {
+
+        // Steady ticks: the same delta time every time, always cached
+        mNanos += 200 * 1000000L;
+        mTimedFilter.predict(mNanos, true);
+        mTimedFilter.getEstimate(mEstimate, mLast);
+        return mEstimate;
+    }
+
+    @Benchmark
+    public Fix timedPredictionTickCacheMiss() {
+
+        // 64 delta times a multiple of the cache size apart: all share one cache slot, so every call misses
+        mNanos += (200 + 16 * (next() & 63)) * 1000000L;
+        mTimedFilter.predict(mNanos, true);
+        mTimedFilter.getEstimate(mEstimate, mLast);
+        return mEstimate;
+    }
+}
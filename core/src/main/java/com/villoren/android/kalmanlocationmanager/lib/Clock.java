@@ -0,0 +1,64 @@
+/*
+ * Clock
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * Source of time for the filter pipeline, so it can run on a virtual time line (see
+ * {@link com.villoren.android.kalmanlocationmanager.lib.sim.VirtualClock VirtualClock}).
+ */
+public interface Clock {
+
+    /**
+     * Clock of the running JVM.
+     */
+    Clock SYSTEM = new Clock() {
+
+        @Override
+        public long elapsedRealtimeNanos() { return System.nanoTime(); }
+
+        @Override
+        public long currentTimeMillis() { return System.currentTimeMillis(); }
+
+        @Override
+        public double getSpeedFactor() { return 1.0; }
+    };
+
+    /**
+     * @return Monotonic time, in nanoseconds. The clock filter steps are computed on.
+     */
+    long elapsedRealtimeNanos();
+
+    /**
+     * @return Wall clock time, in milliseconds since the epoch. Assigned to estimates.
+     */
+    long currentTimeMillis();
+
+    /**
+     * @return Clock time elapsed per unit of real time: 1 for real clocks, more for a simulation running faster
+     *         than real time, 0 for a clock that only moves when told to. Timers on this clock are scheduled
+     *         with it.
+     */
+    double getSpeedFactor();
+}
@@ -0,0 +1,55 @@
+/*
+ * FilterObserver
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * Receives the internals of each correction step, e.g. to compute filter health or tuning statistics.
+ * <p>
+ * Attach it with {@link LocationFilter#setObserver(FilterObserver)}, or per registration with
+ * {@code FilterOptions.observer}. It is called synchronously in the filter thread, once per axis and update,
+ * so it must be quick and must not keep the filter busy. Nothing is computed for it when none is attached.
+ */
+public interface FilterObserver {
+
+    // Axes
+    int LATITUDE = 0;
+    int LONGITUDE = 1;
+    int ALTITUDE = 2;
+
+    /**
+     * Called after a tracker was corrected with a measurement.
+     * <p>
+     * Units are those of the tracker: degrees for latitude and longitude (meters north and east in local frame
+     * mode, see {@link LocationFilter#isLocalFrame()}), meters for altitude. The normalized innovation squared,
+     * innovation * innovation / innovationVariance, is unitless; its mean should stay close to 1 for a well tuned filter.
+     *
+     * @param axis {@link #LATITUDE}, {@link #LONGITUDE} or {@link #ALTITUDE}.
+     * @param innovation Measurement minus predicted position.
+     * @param innovationVariance Predicted variance of the innovation.
+     * @param positionGain Kalman gain applied to the position.
+     * @param velocityGain Kalman gain applied to the velocity.
+     */
+    void onUpdate(int axis, double innovation, double innovationVariance, double positionGain, double velocityGain);
+}
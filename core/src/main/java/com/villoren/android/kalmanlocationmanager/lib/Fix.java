@@ -0,0 +1,179 @@
+/*
+ * Fix
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * A location fix (either a provider reading or a filter estimate) that does not depend on Android.
+ * <p>
+ * Mirrors the subset of {@code android.location.Location} the filter works with, so recorded tracks can
+ * be processed on a plain JVM. Instances are mutable and meant to be reused.
+ */
+public class Fix {
+
+    private String mProvider;
+    private long mTime;
+    private long mElapsedRealtimeNanos;
+    private double mLatitude;
+    private double mLongitude;
+    private double mAltitude;
+    private float mAccuracy;
+    private float mSpeed;
+    private float mBearing;
+
+    private boolean mHasAltitude;
+    private boolean mHasSpeed;
+    private boolean mHasBearing;
+
+    /**
+     * Creates an empty fix for the given provider.
+     *
+     * @param provider Provider name, e.g. "gps", "network" or {@link LocationFilter#KALMAN_PROVIDER "kalman"}.
+     */
+    public Fix(String provider) {
+
+        mProvider = provider;
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param fix Fix to copy.
+     */
+    public Fix(Fix fix) {
+
+        set(fix);
+    }
+
+    /**
+     * Copies all values from the given fix into this one.
+     *
+     * @param fix Fix to copy.
+     */
+    public void set(Fix fix) {
+
+        mProvider = fix.mProvider;
+        mTime = fix.mTime;
+        mElapsedRealtimeNanos = fix.mElapsedRealtimeNanos;
+        mLatitude = fix.mLatitude;
+        mLongitude = fix.mLongitude;
+        mAltitude = fix.mAltitude;
+        mAccuracy = fix.mAccuracy;
+        mSpeed = fix.mSpeed;
+        mBearing = fix.mBearing;
+        mHasAltitude = fix.mHasAltitude;
+        mHasSpeed = fix.mHasSpeed;
+        mHasBearing = fix.mHasBearing;
+    }
+
+    /**
+     * Clears all values, keeping the provider.
+     */
+    public void reset() {
+
+        mTime = 0;
+        mElapsedRealtimeNanos = 0;
+        mLatitude = 0.0;
+        mLongitude = 0.0;
+        mAltitude = 0.0;
+        mAccuracy = 0.0f;
+        mSpeed = 0.0f;
+        mBearing = 0.0f;
+        mHasAltitude = false;
+        mHasSpeed = false;
+        mHasBearing = false;
+    }
+
+    public String getProvider() { return mProvider; }
+
+    public void setProvider(String provider) { mProvider = provider; }
+
+    /**
+     * @return UTC time of this fix, in milliseconds since January 1, 1970.
+     */
+    public long getTime() { return mTime; }
+
+    public void setTime(long time) { mTime = time; }
+
+    /**
+     * @return Monotonic time of this fix, in nanoseconds.
+     */
+    public long getElapsedRealtimeNanos() { return mElapsedRealtimeNanos; }
+
+    public void setElapsedRealtimeNanos(long elapsedRealtimeNanos) { mElapsedRealtimeNanos = elapsedRealtimeNanos; }
+
+    /**
+     * @return Time this fix was taken, for time differences between fixes, in nanoseconds: its elapsed realtime,
+     *         or its UTC time if it has none (e.g. CSV logs or readings from before API 17).
+     */
+    public long getElapsedRealtimeOrTimeNanos() {
+
+        return mElapsedRealtimeNanos > 0 ? mElapsedRealtimeNanos : mTime * 1000000L;
+    }
+
+    public double getLatitude() { return mLatitude; }
+
+    public void setLatitude(double latitude) { mLatitude = latitude; }
+
+    public double getLongitude() { return mLongitude; }
+
+    public void setLongitude(double longitude) { mLongitude = longitude; }
+
+    public boolean hasAltitude() { return mHasAltitude; }
+
+    public double getAltitude() { return mAltitude; }
+
+    public void setAltitude(double altitude) { mAltitude = altitude; mHasAltitude = true; }
+
+    public void removeAltitude() { mAltitude = 0.0; mHasAltitude = false; }
+
+    /**
+     * @return Accuracy radius in meters.
+     */
+    public float getAccuracy() { return mAccuracy; }
+
+    public void setAccuracy(float accuracy) { mAccuracy = accuracy; }
+
+    public boolean hasSpeed() { return mHasSpeed; }
+
+    public float getSpeed() { return mSpeed; }
+
+    public void setSpeed(float speed) { mSpeed = speed; mHasSpeed = true; }
+
+    public void removeSpeed() { mSpeed = 0.0f; mHasSpeed = false; }
+
+    public boolean hasBearing() { return mHasBearing; }
+
+    public float getBearing() { return mBearing; }
+
+    public void setBearing(float bearing) { mBearing = bearing; mHasBearing = true; }
+
+    public void removeBearing() { mBearing = 0.0f; mHasBearing = false; }
+
+    @Override
+    public String toString() {
+
+        return "Fix[" + mProvider + " " + mLatitude + "," + mLongitude + " acc=" + mAccuracy + " t=" + mTime + "]";
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * FixedLagSmoother
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * Fixed-lag Rauch-Tung-Striebel smoother over the latitude and longitude trackers of a {@link LocationFilter}.
+ * <p>
+ * Keeps the filtered states of the last lag + 1 steps in a ring buffer. When the state lag steps back is
+ * wanted, a backward pass over the buffer smooths it with every step after it. Memory and cost per step only
+ * depend on the lag. Altitude is kept as filtered.
+ */
+final class FixedLagSmoother {
+
+    // Offsets of the latitude and longitude states in a step
+    static final int LATITUDE = 0;
+    static final int LONGITUDE = Tracker1D.STATE_SIZE;
+
+    private static final int STEP_SIZE = 2 * Tracker1D.STATE_SIZE;
+
+    private final int mLag;
+    private final double mProcessNoiseVariance;
+
+    // Ring buffer of steps
+    private final double[] mStates;
+    private final double[] mDt;
+    private final long[] mNanos;
+    private final boolean[] mPredicted;
+    private final boolean[] mHasAltitude;
+    private final double[] mAltitude;
+
+    /**
+     * Index of the newest step, and number of steps in the buffer.
+     */
+    private int mHead = -1, mCount;
+
+    /**
+     * Smoothed state, and state of the step after it, during the backward pass.
+     */
+    private final double[] mState = new double[STEP_SIZE];
+    private final double[] mNext = new double[STEP_SIZE];
+
+    /**
+     * @param lag Number of steps between the newest one and the smoothed one.
+     * @param processNoise Process noise of the latitude and longitude trackers.
+     */
+    FixedLagSmoother(int lag, double processNoise) {
+
+        mLag = lag;
+        mProcessNoiseVariance = processNoise * processNoise;
+
+        int capacity = lag + 1;
+
+        mStates = new double[capacity * STEP_SIZE];
+        mDt = new double[capacity];
+        mNanos = new long[capacity];
+        mPredicted = new boolean[capacity];
+        mHasAltitude = new boolean[capacity];
+        mAltitude = new double[capacity];
+    }
+
+    int getLag() { return mLag; }
+
+    /**
+     * Records the state after a filter step.
+     *
+     * @param latitude Latitude tracker.
+     * @param longitude Longitude tracker.
+     * @param altitude Altitude tracker, or null if it is not part of the estimate.
+     * @param dt Delta time since the previous step, in time steps.
+     * @param elapsedRealtimeNanos Time of the step, or Long.MIN_VALUE if unknown.
+     * @param predicted Whether the step was a prediction (as opposed to a correction).
+     */
+    void push(
+            Tracker1D latitude,
+            Tracker1D longitude,
+            Tracker1D altitude,
+            double dt,
+            long elapsedRealtimeNanos,
+            boolean predicted)
+    {
+        mHead = mHead == mDt.length - 1 ? 0 : mHead + 1;
+        mCount = Math.min(mCount + 1, mDt.length);
+
+        latitude.getState(mStates, mHead * STEP_SIZE + LATITUDE);
+        longitude.getState(mStates, mHead * STEP_SIZE + LONGITUDE);
+
+        mDt[mHead] = dt;
+        mNanos[mHead] = elapsedRealtimeNanos;
+        mPredicted[mHead] = predicted;
+        mHasAltitude[mHead] = altitude != null;
+        mAltitude[mHead] = altitude != null ? altitude.getPosition() : 0.0;
+    }
+
+    /**
+     * Shifts the positions of every step (see {@link Tracker1D#translate}).
+     */
+    void translate(double latitudeOffset, double longitudeOffset) {
+
+        for (int i = 0; i < mDt.length; ++i) {
+
+            mStates[i * STEP_SIZE + LATITUDE + Tracker1D.STATE_POSITION] += latitudeOffset;
+            mStates[i * STEP_SIZE + LONGITUDE + Tracker1D.STATE_POSITION] += longitudeOffset;
+        }
+    }
+
+    /**
+     * @return True once lag steps followed the oldest one.
+     */
+    boolean isFull() { return mCount == mDt.length; }
+
+    /**
+     * @return Index of the step lag steps back. Only valid if {@link #isFull()}.
+     */
+    private int tail() { return mHead == mDt.length - 1 ? 0 : mHead + 1; }
+
+    /**
+     * @return Whether the step lag steps back was a prediction. Only valid if {@link #isFull()}.
+     */
+    boolean isPredicted() { return mPredicted[tail()]; }
+
+    long getElapsedRealtimeNanos() { return mNanos[tail()]; }
+
+    boolean hasAltitude() { return mHasAltitude[tail()]; }
+
+    double getAltitude() { return mAltitude[tail()]; }
+
+    /**
+     * Smooths the step lag steps back. Only valid if {@link #isFull()}.
+     *
+     * @return The smoothed latitude and longitude states, valid until the next call.
+     */
+    double[] smooth() {
+
+        int capacity = mDt.length;
+        int step = mHead;
+
+        System.arraycopy(mStates, step * STEP_SIZE, mNext, 0, STEP_SIZE);
+
+        for (int i = 0; i < mLag; ++i) {
+
+            double dt = mDt[step];
+            step = step == 0 ? capacity - 1 : step - 1;
+
+            System.arraycopy(mStates, step * STEP_SIZE, mState, 0, STEP_SIZE);
+            Tracker1D.smooth(mState, mNext, LATITUDE, dt, mProcessNoiseVariance);
+            Tracker1D.smooth(mState, mNext, LONGITUDE, dt, mProcessNoiseVariance);
+            System.arraycopy(mState, 0, mNext, 0, STEP_SIZE);
+        }
+
+        return mNext;
+    }
+}
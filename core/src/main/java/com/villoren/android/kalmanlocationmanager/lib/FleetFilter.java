@@ -0,0 +1,341 @@
+/*
+ * FleetFilter
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * {@link LocationFilter} for many concurrent tracks (e.g. vehicles), stored as a structure of arrays.
+ * <p>
+ * Each track costs 96 bytes of state for latitude and longitude, plus 48 bytes if altitude is tracked,
+ * and no objects. Tracks are addressed by index in {@code [0, capacity)}; predictions run over index ranges.
+ * Not thread safe, but disjoint index ranges may be processed by different threads.
+ * <p>
+ * Tracks can be filtered with fixed time steps ({@link #predict(int, int)} and the updates without time), or
+ * on the time line of their readings (the methods taking a time). A track should stick to one of both.
+ */
+public class FleetFilter {
+
+    private static final double MILLIS_TO_TIME_STEP = LocationFilter.TIME_STEP / 1e3;
+
+    private final Tracker1DArray mLatitudeTracker, mLongitudeTracker, mAltitudeTracker;
+
+    /**
+     * Per track flags.
+     */
+    private final boolean[] mInitialized, mPredicted, mHasAltitude;
+
+    /**
+     * Per track time of the state, in milliseconds, for timed filtering.
+     */
+    private final long[] mTimes;
+
+    /**
+     * @param capacity Number of tracks.
+     * @param trackAltitude Whether altitude should be filtered too.
+     */
+    public FleetFilter(int capacity, boolean trackAltitude) {
+
+        mLatitudeTracker = new Tracker1DArray(capacity, LocationFilter.TIME_STEP, LocationFilter.COORDINATE_NOISE);
+        mLongitudeTracker = new Tracker1DArray(capacity, LocationFilter.TIME_STEP, LocationFilter.COORDINATE_NOISE);
+        mAltitudeTracker = trackAltitude
+                ? new Tracker1DArray(capacity, LocationFilter.TIME_STEP, LocationFilter.ALTITUDE_NOISE)
+                : null;
+
+        mInitialized = new boolean[capacity];
+        mPredicted = new boolean[capacity];
+        mHasAltitude = new boolean[capacity];
+        mTimes = new long[capacity];
+    }
+
+    /**
+     * @return Number of tracks.
+     */
+    public int capacity() { return mInitialized.length; }
+
+    /**
+     * Forgets everything about the given track, so its index can be reused.
+     */
+    public void reset(int track) {
+
+        mInitialized[track] = false;
+        mPredicted[track] = false;
+        mHasAltitude[track] = false;
+        mTimes[track] = 0;
+    }
+
+    /**
+     * Correction step of one track with a provider reading.
+     *
+     * @see LocationFilter#update(double, double, boolean, double, double)
+     */
+    public void update(int track, double latitude, double longitude, boolean hasAltitude, double altitude, double accuracy) {
+
+        final boolean predict = !mPredicted[track] || !mInitialized[track];
+        double noise;
+
+        // Latitude
+        noise = accuracy * LocationFilter.METER_TO_DEG;
+
+        if (!mInitialized[track])
+            mLatitudeTracker.setState(track, latitude, 0.0, noise);
+
+        if (predict)
+            mLatitudeTracker.predict(track);
+
+        mLatitudeTracker.update(track, latitude, noise);
+
+        // Longitude
+        noise = accuracy * Math.cos(Math.toRadians(latitude)) * LocationFilter.METER_TO_DEG;
+
+        if (!mInitialized[track])
+            mLongitudeTracker.setState(track, longitude, 0.0, noise);
+
+        if (predict)
+            mLongitudeTracker.predict(track);
+
+        mLongitudeTracker.update(track, longitude, noise);
+
+        // Altitude
+        if (hasAltitude && mAltitudeTracker != null) {
+
+            noise = accuracy;
+
+            if (!mHasAltitude[track]) {
+
+                mAltitudeTracker.setState(track, altitude, 0.0, noise);
+                mHasAltitude[track] = true;
+            }
+
+            if (predict)
+                mAltitudeTracker.predict(track);
+
+            mAltitudeTracker.update(track, altitude, noise);
+        }
+
+        mInitialized[track] = true;
+        mPredicted[track] = false;
+    }
+
+    /**
+     * Correction step of one track with a provider reading taken at the given time. The track is first predicted
+     * over the time elapsed since its state; a reading older than the state corrects it as it is.
+     *
+     * @param time Time the reading was taken, in milliseconds, e.g. since the epoch.
+     * @see LocationFilter#update(double, double, boolean, double, double)
+     */
+    public void update(
+            int track,
+            long time,
+            double latitude,
+            double longitude,
+            boolean hasAltitude,
+            double altitude,
+            double accuracy)
+    {
+        if (mInitialized[track]) {
+
+            predictTo(track, time);
+
+        } else {
+
+            mLatitudeTracker.setState(track, latitude, 0.0, accuracy * LocationFilter.METER_TO_DEG);
+            mLongitudeTracker.setState(
+                    track, longitude, 0.0, accuracy * Math.cos(Math.toRadians(latitude)) * LocationFilter.METER_TO_DEG);
+            mTimes[track] = time;
+        }
+
+        mLatitudeTracker.update(track, latitude, accuracy * LocationFilter.METER_TO_DEG);
+        mLongitudeTracker.update(
+                track, longitude, accuracy * Math.cos(Math.toRadians(latitude)) * LocationFilter.METER_TO_DEG);
+
+        if (hasAltitude && mAltitudeTracker != null) {
+
+            if (!mHasAltitude[track]) {
+
+                mAltitudeTracker.setState(track, altitude, 0.0, accuracy);
+                mHasAltitude[track] = true;
+            }
+
+            mAltitudeTracker.update(track, altitude, accuracy);
+        }
+
+        mInitialized[track] = true;
+        mPredicted[track] = false;
+    }
+
+    /**
+     * Correction step of many tracks at once.
+     *
+     * @param tracks Track index of each reading.
+     * @param latitudes Measured latitudes, in degrees.
+     * @param longitudes Measured longitudes, in degrees.
+     * @param altitudes Measured altitudes, in meters, {@code NaN} if not available. May be null.
+     * @param accuracies Accuracy of each reading, in meters.
+     * @param offset Index of the first reading in the given arrays.
+     * @param count Number of readings.
+     */
+    public void update(
+            int[] tracks,
+            double[] latitudes,
+            double[] longitudes,
+            double[] altitudes,
+            double[] accuracies,
+            int offset,
+            int count)
+    {
+        final int end = offset + count;
+
+        for (int i = offset; i < end; i++) {
+
+            double altitude = altitudes == null ? Double.NaN : altitudes[i];
+
+            update(tracks[i], latitudes[i], longitudes[i], altitude == altitude, altitude, accuracies[i]);
+        }
+    }
+
+    /**
+     * Prediction step of all tracks in {@code [from, to)}. Tracks without measurements yet are left as they are.
+     *
+     * @param from First track, inclusive.
+     * @param to Last track, exclusive.
+     */
+    public void predict(int from, int to) {
+
+        int i = from;
+
+        while (i < to) {
+
+            // Skip unused tracks, then predict the run of initialized ones after them
+            while (i < to && !mInitialized[i])
+                i++;
+
+            int start = i;
+
+            while (i < to && mInitialized[i])
+                mPredicted[i++] = true;
+
+            if (start == i)
+                continue;
+
+            mLatitudeTracker.predict(start, i);
+            mLongitudeTracker.predict(start, i);
+
+            if (mAltitudeTracker != null)
+                mAltitudeTracker.predict(start, i);
+        }
+    }
+
+    /**
+     * Prediction step of one track up to the given time, for timed filtering. Does nothing if the track has no
+     * measurements yet or its state is not older than the given time.
+     *
+     * @param time Time to predict to, in milliseconds, on the time line of the readings.
+     */
+    public void predictTo(int track, long time) {
+
+        if (!mInitialized[track] || time <= mTimes[track])
+            return;
+
+        double dt = (time - mTimes[track]) * MILLIS_TO_TIME_STEP;
+
+        mLatitudeTracker.predictBy(track, dt);
+        mLongitudeTracker.predictBy(track, dt);
+
+        if (mHasAltitude[track])
+            mAltitudeTracker.predictBy(track, dt);
+
+        mTimes[track] = time;
+        mPredicted[track] = true;
+    }
+
+    /**
+     * @return Time of the state of the given track, in milliseconds, for timed filtering.
+     */
+    public long getTime(int track) { return mTimes[track]; }
+
+    /**
+     * @return True once the given track received its first measurement.
+     */
+    public boolean isInitialized(int track) { return mInitialized[track]; }
+
+    /**
+     * @return True if altitude is being estimated for the given track.
+     */
+    public boolean hasAltitude(int track) { return mHasAltitude[track]; }
+
+    public double getLatitude(int track) { return mLatitudeTracker.getPosition(track); }
+
+    public double getLongitude(int track) { return mLongitudeTracker.getPosition(track); }
+
+    public double getAltitude(int track) { return mAltitudeTracker.getPosition(track); }
+
+    /**
+     * @return Estimated accuracy of the given track, in meters.
+     */
+    public double getAccuracy(int track) { return mLatitudeTracker.getAccuracy(track) * LocationFilter.DEG_TO_METER; }
+
+    /**
+     * Fills the given fix with the current estimate of the given track.
+     *
+     * @param track Track index.
+     * @param fix Fix to fill. Its provider is set to {@link LocationFilter#KALMAN_PROVIDER}.
+     */
+    public void getEstimate(int track, Fix fix) {
+
+        fix.reset();
+        fix.setProvider(LocationFilter.KALMAN_PROVIDER);
+        fix.setLatitude(getLatitude(track));
+        fix.setLongitude(getLongitude(track));
+
+        if (mHasAltitude[track])
+            fix.setAltitude(getAltitude(track));
+
+        fix.setAccuracy((float) getAccuracy(track));
+    }
+
+    /**
+     * Fills the given fix with the estimate of the given track extrapolated to the given time, for timed filtering.
+     * The state of the track is left as it is, so later readings are still applied at their own time.
+     *
+     * @param track Track index.
+     * @param time Time to extrapolate to, in milliseconds. Times before the state of the track give its state.
+     * @param fix Fix to fill. Its provider is set to {@link LocationFilter#KALMAN_PROVIDER}, and its time to the
+     *            time of the estimate.
+     */
+    public void getEstimate(int track, long time, Fix fix) {
+
+        double dt = time > mTimes[track] ? (time - mTimes[track]) * MILLIS_TO_TIME_STEP : 0.0;
+
+        fix.reset();
+        fix.setProvider(LocationFilter.KALMAN_PROVIDER);
+        fix.setTime(Math.max(time, mTimes[track]));
+        fix.setLatitude(mLatitudeTracker.getPosition(track, dt));
+        fix.setLongitude(mLongitudeTracker.getPosition(track, dt));
+
+        if (mHasAltitude[track])
+            fix.setAltitude(mAltitudeTracker.getPosition(track, dt));
+
+        fix.setAccuracy((float) (mLatitudeTracker.getAccuracy(track, dt) * LocationFilter.DEG_TO_METER));
+    }
+}
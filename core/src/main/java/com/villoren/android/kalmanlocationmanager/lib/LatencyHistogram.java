@@ -0,0 +1,162 @@
+/*
+ * LatencyHistogram
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative durations (or any long values) with logarithmic buckets.
+ * <p>
+ * Each power of two is split in {@link #SUB_BUCKETS} buckets, so reported percentiles are within 12.5% of the
+ * recorded values, whatever their magnitude. Recording costs a few atomic increments and never allocates.
+ * Thread safe: values can be recorded and read from any thread.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Buckets per power of two.
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+
+        if (value < 0)
+            value = 0;
+
+        mBuckets.incrementAndGet(bucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+
+        long max = mMax.get();
+
+        while (value > max && !mMax.compareAndSet(max, value))
+            max = mMax.get();
+    }
+
+    /**
+     * @return Number of recorded values.
+     */
+    public long getCount() { return mCount.get(); }
+
+    /**
+     * @return Largest recorded value, 0 if none.
+     */
+    public long getMax() { return mMax.get(); }
+
+    /**
+     * @return Mean of the recorded values, 0 if none.
+     */
+    public double getMean() {
+
+        long count = mCount.get();
+        return count > 0 ? (double) mSum.get() / count : 0.0;
+    }
+
+    /**
+     * @param percentile Percentile, from 0 to 100.
+     * @return Upper bound of the bucket holding the given percentile (never above {@link #getMax()}), 0 if empty.
+     */
+    public long getValueAtPercentile(double percentile) {
+
+        if (percentile < 0.0 || percentile > 100.0)
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++)
+            count += mBuckets.get(i);
+
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+
+            seen += mBuckets.get(i);
+
+            if (seen >= rank)
+                return Math.min(upperBound(i), mMax.get());
+        }
+
+        return mMax.get();
+    }
+
+    /**
+     * Clears all recorded values. Values recorded meanwhile may be partially cleared.
+     */
+    public void reset() {
+
+        for (int i = 0; i < BUCKETS; i++)
+            mBuckets.set(i, 0);
+
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+
+        return String.format("count=%d mean=%.0f p50=%d p90=%d p99=%d max=%d",
+                getCount(), getMean(), getValueAtPercentile(50), getValueAtPercentile(90),
+                getValueAtPercentile(99), getMax());
+    }
+
+    private static int bucket(long value) {
+
+        if (value < SUB_BUCKETS)
+            return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    private static long upperBound(int bucket) {
+
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+
+        int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+        long lower = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,647 @@
+/*
+ * LocationFilter
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * Kalman filter over latitude, longitude and altitude.
+ * <p>
+ * Holds the three {@link Tracker1D} instances that used to live in {@code LooperThread} (now {@code FilterSession}),
+ * so the very same filtering can run on the device and on a plain JVM (see the {@code replay} package).
+ * <p>
+ * By default the trackers run in degrees. In local frame mode they run in meters, north and east of an
+ * anchor point, which keeps the noise isotropic at any latitude. The anchor follows the estimate once it
+ * is farther than {@link #ANCHOR_DISTANCE}, and its trigonometry is only computed then.
+ * <p>
+ * Optionally, the filter also keeps the states of the last steps, and provides fixed-lag smoothed estimates
+ * ({@link #getSmoothedEstimate(Fix)}).
+ */
+public class LocationFilter {
+
+    // Providers (same values as android.location.LocationManager)
+    public static final String GPS_PROVIDER = "gps";
+    public static final String NETWORK_PROVIDER = "network";
+    public static final String PASSIVE_PROVIDER = "passive";
+    public static final String FUSED_PROVIDER = "fused";
+
+    /**
+     * Provider string assigned to predicted fixes.
+     */
+    public static final String KALMAN_PROVIDER = "kalman";
+
+    /**
+     * Provider string assigned to fixed-lag smoothed fixes.
+     */
+    public static final String SMOOTHED_PROVIDER = "smoothed";
+
+    // Static constant
+    public static final double DEG_TO_METER = 111225.0;
+    public static final double METER_TO_DEG = 1.0 / DEG_TO_METER;
+
+    static final double TIME_STEP = 1.0;
+    static final double COORDINATE_NOISE = 4.0 * METER_TO_DEG;
+    static final double ALTITUDE_NOISE = 10.0;
+    static final double COORDINATE_NOISE_METERS = COORDINATE_NOISE * DEG_TO_METER;
+
+    /**
+     * Maximum distance, in meters, from the anchor to the estimate in local frame mode. The local frame is a
+     * flat approximation, so the error grows with the distance (a few centimeters per kilometer).
+     */
+    public static final double ANCHOR_DISTANCE = 1000.0;
+
+    /**
+     * The time step is one second when predicting with real delta times.
+     */
+    private static final double NANOS_TO_TIME_STEP = TIME_STEP / 1e9;
+
+    /**
+     * Marks a fixed {@link #TIME_STEP} prediction, instead of a real delta time.
+     */
+    private static final double FIXED_STEP = Double.NaN;
+
+    /**
+     * Three 1-dimension trackers, since the dimensions are independent and can avoid using matrices.
+     */
+    private Tracker1D mLatitudeTracker, mLongitudeTracker, mAltitudeTracker;
+
+    /**
+     * Whether the latitude and longitude trackers run in meters (north and east of the anchor) instead of degrees.
+     */
+    private final boolean mLocalFrame;
+
+    /**
+     * Local frame anchor, and its meters per degree of longitude (and inverse).
+     */
+    private double mAnchorLatitude, mAnchorLongitude, mLongitudeToMeter, mMeterToLongitude;
+
+    /**
+     * Past states, or null if not smoothing.
+     */
+    private final FixedLagSmoother mSmoother;
+
+    /**
+     * Observer given to the trackers, or null.
+     */
+    private FilterObserver mObserver;
+
+    /**
+     * Whether a prediction step happened since the last correction step.
+     */
+    private boolean mPredicted;
+
+    /**
+     * Time of the last step of the latitude/longitude and altitude trackers, when predicting with real delta times.
+     */
+    private long mTimeNanos = Long.MIN_VALUE, mAltitudeTimeNanos = Long.MIN_VALUE;
+
+    /**
+     * Filter running in degrees.
+     */
+    public LocationFilter() {
+
+        this(false);
+    }
+
+    /**
+     * @param localFrame True to filter in meters in a local east-north frame, false to filter in degrees.
+     */
+    public LocationFilter(boolean localFrame) {
+
+        this(localFrame, 0);
+    }
+
+    /**
+     * @param localFrame True to filter in meters in a local east-north frame, false to filter in degrees.
+     * @param smoothingLag Number of filter steps (predictions and corrections) between the latest estimate and
+     *                     the smoothed one. 0 disables smoothing. Memory and smoothing cost grow with it.
+     */
+    public LocationFilter(boolean localFrame, int smoothingLag) {
+
+        if (smoothingLag < 0)
+            throw new IllegalArgumentException("smoothingLag can't be negative");
+
+        mLocalFrame = localFrame;
+        mSmoother = smoothingLag > 0
+                ? new FixedLagSmoother(smoothingLag, localFrame ? COORDINATE_NOISE_METERS : COORDINATE_NOISE)
+                : null;
+    }
+
+    /**
+     * @return True if filtering in a local east-north frame.
+     */
+    public boolean isLocalFrame() { return mLocalFrame; }
+
+    /**
+     * Reports every correction step of the trackers to the given observer.
+     *
+     * @param observer Observer, or null to stop reporting.
+     */
+    public void setObserver(FilterObserver observer) {
+
+        mObserver = observer;
+
+        observe(mLatitudeTracker, FilterObserver.LATITUDE);
+        observe(mLongitudeTracker, FilterObserver.LONGITUDE);
+        observe(mAltitudeTracker, FilterObserver.ALTITUDE);
+    }
+
+    private void observe(Tracker1D tracker, int axis) {
+
+        if (tracker != null)
+            tracker.setObserver(mObserver, axis);
+    }
+
+    /**
+     * Accuracy assumed for readings without one, in meters.
+     */
+    public static final double UNKNOWN_ACCURACY = 100.0;
+
+    /**
+     * Measurement noise multiplier of readings received through the passive provider, and of readings from
+     * providers other than GPS, Network and Fused. Their rate and quality settings were chosen by other
+     * applications, so their reported accuracy is less trustworthy.
+     */
+    public static final double PASSIVE_NOISE_FACTOR = 2.0;
+
+    /**
+     * Tells whether a new reading should replace the last one used to complete estimates
+     * (speed, bearing, altitude availability).
+     * <p>
+     * Providers rank GPS, then Fused, then any other, then Network; a reading is preferred over one of the same
+     * or a lower rank. In particular GPS readings are always preferred over Network ones.
+     *
+     * @param provider Provider of the new reading.
+     * @param lastProvider Provider of the last kept reading, or null if there is none.
+     * @return True if the new reading should be kept.
+     */
+    public static boolean isPreferred(String provider, String lastProvider) {
+
+        return lastProvider == null || rank(provider) >= rank(lastProvider);
+    }
+
+    private static int rank(String provider) {
+
+        if (GPS_PROVIDER.equals(provider))
+            return 3;
+
+        if (FUSED_PROVIDER.equals(provider))
+            return 2;
+
+        if (NETWORK_PROVIDER.equals(provider))
+            return 0;
+
+        return 1;
+    }
+
+    /**
+     * Measurement noise of a reading requested by this application, weighted by its provider and accuracy.
+     *
+     * @see #getMeasurementNoise(String, double, boolean)
+     */
+    public static double getMeasurementNoise(String provider, double accuracy) {
+
+        return getMeasurementNoise(provider, accuracy, false);
+    }
+
+    /**
+     * Measurement noise of a reading, weighted by its provider, accuracy and how it was received.
+     * <p>
+     * Readings keep the name of the provider that produced them, also when received through the passive provider,
+     * so the caller tells which ones were. GPS, Network and Fused readings requested by this application are
+     * trusted as reported. Passive readings, and readings from other providers, have their accuracy multiplied by
+     * {@link #PASSIVE_NOISE_FACTOR}. Readings without accuracy are given {@link #UNKNOWN_ACCURACY}.
+     *
+     * @param provider Provider that produced the reading.
+     * @param accuracy Reported accuracy, in meters. 0 or less if unknown.
+     * @param passive Whether the reading was received through the passive provider.
+     * @return Accuracy to give to {@link #update update}, in meters.
+     */
+    public static double getMeasurementNoise(String provider, double accuracy, boolean passive) {
+
+        if (!(accuracy > 0.0))
+            accuracy = UNKNOWN_ACCURACY;
+
+        if (!passive
+                && (GPS_PROVIDER.equals(provider) || NETWORK_PROVIDER.equals(provider) || FUSED_PROVIDER.equals(provider)))
+            return accuracy;
+
+        return accuracy * PASSIVE_NOISE_FACTOR;
+    }
+
+    /**
+     * @return True once the first measurement has been received.
+     */
+    public boolean isInitialized() { return mLatitudeTracker != null; }
+
+    /**
+     * Correction step with a provider reading.
+     * <p>
+     * Forces a prediction step first if no prediction happened since the previous correction (reduces overshoot).
+     *
+     * @param latitude Measured latitude, in degrees.
+     * @param longitude Measured longitude, in degrees.
+     * @param hasAltitude Whether the reading has altitude.
+     * @param altitude Measured altitude, in meters. Ignored if hasAltitude is false.
+     * @param accuracy Accuracy of the reading, in meters.
+     */
+    public void update(double latitude, double longitude, boolean hasAltitude, double altitude, double accuracy) {
+
+        correct(Long.MIN_VALUE, latitude, longitude, hasAltitude, altitude, accuracy, FIXED_STEP, FIXED_STEP);
+    }
+
+    /**
+     * Correction step with a provider reading, predicting first over the real time elapsed since the previous step.
+     * <p>
+     * Unlike {@link #update(double, double, boolean, double, double)}, the time step is one second, and the
+     * prediction always happens (it is a no-op if no time elapsed). Readings older than the previous step
+     * are applied without prediction.
+     *
+     * @param elapsedRealtimeNanos Time of the reading, on a monotonic clock.
+     */
+    public void update(
+            long elapsedRealtimeNanos,
+            double latitude,
+            double longitude,
+            boolean hasAltitude,
+            double altitude,
+            double accuracy)
+    {
+        double dt = elapse(elapsedRealtimeNanos, mTimeNanos);
+        mTimeNanos = Math.max(mTimeNanos, elapsedRealtimeNanos);
+
+        double altitudeDt = 0.0;
+
+        if (hasAltitude) {
+
+            altitudeDt = elapse(elapsedRealtimeNanos, mAltitudeTimeNanos);
+            mAltitudeTimeNanos = Math.max(mAltitudeTimeNanos, elapsedRealtimeNanos);
+        }
+
+        correct(elapsedRealtimeNanos, latitude, longitude, hasAltitude, altitude, accuracy, dt, altitudeDt);
+    }
+
+    private void correct(
+            long elapsedRealtimeNanos,
+            double latitude,
+            double longitude,
+            boolean hasAltitude,
+            double altitude,
+            double accuracy,
+            double dt,
+            double altitudeDt)
+    {
+        double noise;
+
+        // Delta time of the step, for the smoother
+        double stepDt = dt != dt ? (mPredicted ? 0.0 : TIME_STEP) : dt;
+
+        if (mLocalFrame) {
+
+            if (mLatitudeTracker == null) {
+
+                setAnchor(latitude, longitude);
+
+                mLatitudeTracker = new Tracker1D(TIME_STEP, COORDINATE_NOISE_METERS);
+                mLatitudeTracker.setState(0.0, 0.0, accuracy);
+
+                mLongitudeTracker = new Tracker1D(TIME_STEP, COORDINATE_NOISE_METERS);
+                mLongitudeTracker.setState(0.0, 0.0, accuracy);
+
+                observe(mLatitudeTracker, FilterObserver.LATITUDE);
+                observe(mLongitudeTracker, FilterObserver.LONGITUDE);
+            }
+
+            // North and east, same noise for both
+            predict(mLatitudeTracker, dt);
+            mLatitudeTracker.update((latitude - mAnchorLatitude) * DEG_TO_METER, accuracy);
+
+            predict(mLongitudeTracker, dt);
+            mLongitudeTracker.update((longitude - mAnchorLongitude) * mLongitudeToMeter, accuracy);
+
+            moveAnchor();
+
+        } else {
+
+            // Latitude
+            noise = accuracy * METER_TO_DEG;
+
+            if (mLatitudeTracker == null) {
+
+                mLatitudeTracker = new Tracker1D(TIME_STEP, COORDINATE_NOISE);
+                mLatitudeTracker.setState(latitude, 0.0, noise);
+                observe(mLatitudeTracker, FilterObserver.LATITUDE);
+            }
+
+            predict(mLatitudeTracker, dt);
+
+            mLatitudeTracker.update(latitude, noise);
+
+            // Longitude
+            noise = accuracy * Math.cos(Math.toRadians(latitude)) * METER_TO_DEG ;
+
+            if (mLongitudeTracker == null) {
+
+                mLongitudeTracker = new Tracker1D(TIME_STEP, COORDINATE_NOISE);
+                mLongitudeTracker.setState(longitude, 0.0, noise);
+                observe(mLongitudeTracker, FilterObserver.LONGITUDE);
+            }
+
+            predict(mLongitudeTracker, dt);
+
+            mLongitudeTracker.update(longitude, noise);
+        }
+
+        // Altitude
+        if (hasAltitude) {
+
+            noise = accuracy;
+
+            if (mAltitudeTracker == null) {
+
+                mAltitudeTracker = new Tracker1D(TIME_STEP, ALTITUDE_NOISE);
+                mAltitudeTracker.setState(altitude, 0.0, noise);
+                observe(mAltitudeTracker, FilterObserver.ALTITUDE);
+            }
+
+            predict(mAltitudeTracker, altitudeDt);
+
+            mAltitudeTracker.update(altitude, noise);
+        }
+
+        // Reset predicted flag
+        mPredicted = false;
+
+        if (mSmoother != null)
+            mSmoother.push(mLatitudeTracker, mLongitudeTracker, mAltitudeTracker, stepDt, elapsedRealtimeNanos, false);
+    }
+
+    private void setAnchor(double latitude, double longitude) {
+
+        mAnchorLatitude = latitude;
+        mAnchorLongitude = longitude;
+        mLongitudeToMeter = DEG_TO_METER * Math.cos(Math.toRadians(latitude));
+        mMeterToLongitude = 1.0 / mLongitudeToMeter;
+    }
+
+    /**
+     * Moves the local frame anchor to the estimate, if it is too far.
+     */
+    private void moveAnchor() {
+
+        double north = mLatitudeTracker.getPosition();
+        double east = mLongitudeTracker.getPosition();
+
+        if (Math.abs(north) <= ANCHOR_DISTANCE && Math.abs(east) <= ANCHOR_DISTANCE)
+            return;
+
+        setAnchor(mAnchorLatitude + north * METER_TO_DEG, mAnchorLongitude + east * mMeterToLongitude);
+
+        mLatitudeTracker.translate(-north);
+        mLongitudeTracker.translate(-east);
+
+        if (mSmoother != null)
+            mSmoother.translate(-north, -east);
+    }
+
+    /**
+     * Prediction step. Must not be called before the first {@link #update update}.
+     *
+     * @param predictAltitude Whether the altitude tracker should be predicted too.
+     *                        Only valid if some reading with altitude was received before.
+     */
+    public void predict(boolean predictAltitude) {
+
+        mLatitudeTracker.predict(0.0);
+        mLongitudeTracker.predict(0.0);
+
+        if (predictAltitude)
+            mAltitudeTracker.predict(0.0);
+
+        mPredicted = true;
+
+        if (mSmoother != null)
+            mSmoother.push(
+                    mLatitudeTracker, mLongitudeTracker, predictAltitude ? mAltitudeTracker : null,
+                    TIME_STEP, Long.MIN_VALUE, true);
+    }
+
+    /**
+     * Prediction step over the real time elapsed since the previous step. Must not be called before the first
+     * {@link #update(long, double, double, boolean, double, double) update}.
+     *
+     * @param elapsedRealtimeNanos Time of the prediction, on the same clock as the readings.
+     * @param predictAltitude Whether the altitude tracker should be predicted too.
+     */
+    public void predict(long elapsedRealtimeNanos, boolean predictAltitude) {
+
+        double dt = elapse(elapsedRealtimeNanos, mTimeNanos);
+
+        mLatitudeTracker.predict(0.0, dt);
+        mLongitudeTracker.predict(0.0, dt);
+        mTimeNanos = Math.max(mTimeNanos, elapsedRealtimeNanos);
+
+        if (predictAltitude) {
+
+            mAltitudeTracker.predict(0.0, elapse(elapsedRealtimeNanos, mAltitudeTimeNanos));
+            mAltitudeTimeNanos = Math.max(mAltitudeTimeNanos, elapsedRealtimeNanos);
+        }
+
+        mPredicted = true;
+
+        if (mSmoother != null)
+            mSmoother.push(
+                    mLatitudeTracker, mLongitudeTracker, predictAltitude ? mAltitudeTracker : null,
+                    dt, elapsedRealtimeNanos, true);
+    }
+
+    /**
+     * Fixed step prediction if no prediction happened since the previous correction, or real delta time prediction.
+     */
+    private void predict(Tracker1D tracker, double dt) {
+
+        if (dt != dt) {
+
+            if (!mPredicted)
+                tracker.predict(0.0);
+
+        } else {
+
+            tracker.predict(0.0, dt);
+        }
+    }
+
+    /**
+     * @return Time steps elapsed from the given previous time, 0 if none or negative.
+     */
+    private static double elapse(long elapsedRealtimeNanos, long previousNanos) {
+
+        if (previousNanos == Long.MIN_VALUE || elapsedRealtimeNanos <= previousNanos)
+            return 0.0;
+
+        return (elapsedRealtimeNanos - previousNanos) * NANOS_TO_TIME_STEP;
+    }
+
+    /**
+     * @return Estimated latitude, in degrees.
+     */
+    public double getLatitude() {
+
+        if (mLocalFrame)
+            return mAnchorLatitude + mLatitudeTracker.getPosition() * METER_TO_DEG;
+
+        return mLatitudeTracker.getPosition();
+    }
+
+    /**
+     * @return Estimated longitude, in degrees.
+     */
+    public double getLongitude() {
+
+        if (mLocalFrame)
+            return mAnchorLongitude + mLongitudeTracker.getPosition() * mMeterToLongitude;
+
+        return mLongitudeTracker.getPosition();
+    }
+
+    /**
+     * @return Estimated altitude, in meters.
+     */
+    public double getAltitude() { return mAltitudeTracker.getPosition(); }
+
+    /**
+     * @return Estimated horizontal speed, in meters per time step (per second when predicting with real delta times).
+     */
+    public double getSpeed() {
+
+        if (mLocalFrame) {
+
+            double north = mLatitudeTracker.getVelocity();
+            double east = mLongitudeTracker.getVelocity();
+
+            return Math.sqrt(north * north + east * east);
+        }
+
+        double north = mLatitudeTracker.getVelocity() * DEG_TO_METER;
+        double east = mLongitudeTracker.getVelocity() * DEG_TO_METER * Math.cos(Math.toRadians(getLatitude()));
+
+        return Math.sqrt(north * north + east * east);
+    }
+
+    /**
+     * @return Estimated accuracy, in meters.
+     */
+    public double getAccuracy() {
+
+        if (mLocalFrame)
+            return mLatitudeTracker.getAccuracy();
+
+        return mLatitudeTracker.getAccuracy() * DEG_TO_METER;
+    }
+
+    /**
+     * Fills the given fix with the current estimate. Speed, bearing and altitude availability are
+     * taken from the given reading, as the filter does not estimate them.
+     *
+     * @param fix Fix to fill. Its provider is set to {@link #KALMAN_PROVIDER}.
+     * @param last Last preferred provider reading.
+     */
+    public void getEstimate(Fix fix, Fix last) {
+
+        fix.reset();
+        fix.setProvider(KALMAN_PROVIDER);
+        fix.setLatitude(getLatitude());
+        fix.setLongitude(getLongitude());
+
+        if (last.hasAltitude())
+            fix.setAltitude(getAltitude());
+
+        if (last.hasSpeed())
+            fix.setSpeed(last.getSpeed());
+
+        if (last.hasBearing())
+            fix.setBearing(last.getBearing());
+
+        fix.setAccuracy((float) getAccuracy());
+    }
+
+    /**
+     * Fills the given fix with the smoothed estimate of the prediction made lag steps before the last one, if any.
+     * <p>
+     * The smoothed estimate combines that prediction with every later step. It has speed and bearing from the
+     * smoothed velocity, the standard deviation of the smoothed latitude as accuracy, altitude as filtered, and
+     * the time given to {@link #predict(long, boolean)} (if any) as elapsed realtime.
+     * Call after each step; each smoothed prediction is available once, after the step lag steps after it.
+     *
+     * @param fix Fix to fill. Its provider is set to {@link #SMOOTHED_PROVIDER}.
+     * @return False if not smoothing, or if the step lag steps back is not a prediction. The fix is not
+     *         changed then.
+     */
+    public boolean getSmoothedEstimate(Fix fix) {
+
+        if (mSmoother == null || !mSmoother.isFull() || !mSmoother.isPredicted())
+            return false;
+
+        double[] state = mSmoother.smooth();
+
+        int latitude = FixedLagSmoother.LATITUDE, longitude = FixedLagSmoother.LONGITUDE;
+        double north = state[latitude + Tracker1D.STATE_POSITION];
+        double east = state[longitude + Tracker1D.STATE_POSITION];
+        double northSpeed = state[latitude + Tracker1D.STATE_VELOCITY];
+        double eastSpeed = state[longitude + Tracker1D.STATE_VELOCITY];
+        double accuracy = Math.sqrt(state[latitude + Tracker1D.STATE_POSITION_VARIANCE]);
+
+        fix.reset();
+        fix.setProvider(SMOOTHED_PROVIDER);
+
+        if (mLocalFrame) {
+
+            fix.setLatitude(mAnchorLatitude + north * METER_TO_DEG);
+            fix.setLongitude(mAnchorLongitude + east * mMeterToLongitude);
+
+        } else {
+
+            fix.setLatitude(north);
+            fix.setLongitude(east);
+
+            // Velocities and accuracy in meters
+            northSpeed *= DEG_TO_METER;
+            eastSpeed *= DEG_TO_METER * Math.cos(Math.toRadians(north));
+            accuracy *= DEG_TO_METER;
+        }
+
+        double bearing = Math.toDegrees(Math.atan2(eastSpeed, northSpeed));
+
+        fix.setSpeed((float) Math.sqrt(northSpeed * northSpeed + eastSpeed * eastSpeed));
+        fix.setBearing((float) (bearing < 0.0 ? bearing + 360.0 : bearing));
+        fix.setAccuracy((float) accuracy);
+
+        if (mSmoother.hasAltitude())
+            fix.setAltitude(mSmoother.getAltitude());
+
+        if (mSmoother.getElapsedRealtimeNanos() != Long.MIN_VALUE)
+            fix.setElapsedRealtimeNanos(mSmoother.getElapsedRealtimeNanos());
+
+        return true;
+    }
+}
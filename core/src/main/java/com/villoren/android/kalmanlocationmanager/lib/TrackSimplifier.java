@@ -0,0 +1,234 @@
+/*
+ * TrackSimplifier
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+/**
+ * Streaming track simplification (opening window / corridor compression).
+ * <p>
+ * Fixes are fed one at a time with {@link #add(Fix)}. A fix is kept only when the track can no longer be
+ * approximated by a straight segment from the last kept fix, within the given tolerance: every fix between
+ * both ends must lie within the tolerance of that segment. The window of pending fixes is bounded, so memory
+ * per track is constant and the cost per fix is at most the window size.
+ * <p>
+ * Kept fixes are returned from {@link #add(Fix)} and {@link #flush()}. They are owned by this class and are
+ * only valid until the next call; no allocation happens after construction.
+ */
+public class TrackSimplifier {
+
+    /**
+     * Default maximum number of fixes between two kept fixes.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64;
+
+    private final double mTolerance;
+
+    /**
+     * Pending fixes. Slot 0 is the last kept fix (the anchor), slot mSize - 1 is the latest fix.
+     */
+    private final Fix[] mWindow;
+
+    /**
+     * Pending fix positions in meters, relative to the anchor.
+     */
+    private final double[] mX, mY;
+
+    private int mSize;
+
+    /**
+     * Meters per degree of longitude at the anchor.
+     */
+    private double mLongitudeToMeter;
+
+    /**
+     * Fix handed out by {@link #add(Fix)} and {@link #flush()}.
+     */
+    private final Fix mKept = new Fix((String) null);
+
+    private long mInputCount, mOutputCount;
+
+    /**
+     * @param tolerance Maximum distance, in meters, from a dropped fix to the simplified track.
+     */
+    public TrackSimplifier(double tolerance) {
+
+        this(tolerance, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param tolerance Maximum distance, in meters, from a dropped fix to the simplified track.
+     * @param windowSize Maximum number of fixes between two kept fixes, at least 2. Bounds memory and
+     *                   per-fix cost.
+     */
+    public TrackSimplifier(double tolerance, int windowSize) {
+
+        if (!(tolerance >= 0.0))
+            throw new IllegalArgumentException("tolerance < 0");
+
+        if (windowSize < 2)
+            throw new IllegalArgumentException("windowSize < 2");
+
+        mTolerance = tolerance;
+        mWindow = new Fix[windowSize + 1];
+        mX = new double[windowSize + 1];
+        mY = new double[windowSize + 1];
+
+        for (int i = 0; i < mWindow.length; ++i)
+            mWindow[i] = new Fix((String) null);
+    }
+
+    /**
+     * Adds the next fix of the track.
+     *
+     * @param fix Next fix. It is copied.
+     * @return The fix kept as a result of this one, or null. Valid until the next call.
+     */
+    public Fix add(Fix fix) {
+
+        ++mInputCount;
+
+        // First fix is always kept
+        if (mSize == 0) {
+
+            setAnchor(fix);
+            return keep(mWindow[0]);
+        }
+
+        double x = (fix.getLongitude() - mWindow[0].getLongitude()) * mLongitudeToMeter;
+        double y = (fix.getLatitude() - mWindow[0].getLatitude()) * LocationFilter.DEG_TO_METER;
+
+        if (mSize < mWindow.length - 1 && fits(x, y)) {
+
+            mWindow[mSize].set(fix);
+            mX[mSize] = x;
+            mY[mSize] = y;
+            ++mSize;
+            return null;
+        }
+
+        // The previous fix ends the segment and anchors the next one
+        Fix kept = keep(mWindow[mSize - 1]);
+        setAnchor(kept);
+
+        mWindow[1].set(fix);
+        mX[1] = (fix.getLongitude() - kept.getLongitude()) * mLongitudeToMeter;
+        mY[1] = (fix.getLatitude() - kept.getLatitude()) * LocationFilter.DEG_TO_METER;
+        mSize = 2;
+
+        return kept;
+    }
+
+    /**
+     * Ends the current segment, keeping the latest fix (e.g. before uploading or when the track ends).
+     *
+     * @return The latest fix, or null if it was already kept. Valid until the next call.
+     */
+    public Fix flush() {
+
+        if (mSize < 2)
+            return null;
+
+        Fix kept = keep(mWindow[mSize - 1]);
+        setAnchor(kept);
+
+        return kept;
+    }
+
+    /**
+     * Forgets the current track.
+     */
+    public void reset() {
+
+        mSize = 0;
+    }
+
+    public double getTolerance() { return mTolerance; }
+
+    /**
+     * @return Maximum number of fixes between two kept fixes.
+     */
+    public int getWindowSize() { return mWindow.length - 1; }
+
+    /**
+     * @return A new simplifier with the same settings as this one, and none of its state.
+     */
+    public TrackSimplifier newSimplifier() {
+
+        return new TrackSimplifier(mTolerance, getWindowSize());
+    }
+
+    /**
+     * @return Number of fixes added.
+     */
+    public long getInputCount() { return mInputCount; }
+
+    /**
+     * @return Number of fixes kept.
+     */
+    public long getOutputCount() { return mOutputCount; }
+
+    /**
+     * Whether all pending fixes lie within tolerance of the segment from the anchor to the given point.
+     */
+    private boolean fits(double x, double y) {
+
+        double length2 = x * x + y * y;
+        double tolerance2 = mTolerance * mTolerance;
+
+        for (int i = 1; i < mSize; ++i) {
+
+            double px = mX[i], py = mY[i];
+
+            // Projection on the segment, clamped to its ends
+            double t = length2 > 0.0 ? (px * x + py * y) / length2 : 0.0;
+
+            if (t < 0.0) t = 0.0;
+            else if (t > 1.0) t = 1.0;
+
+            double dx = px - t * x, dy = py - t * y;
+
+            if (dx * dx + dy * dy > tolerance2)
+                return false;
+        }
+
+        return true;
+    }
+
+    private void setAnchor(Fix fix) {
+
+        mWindow[0].set(fix);
+        mX[0] = 0.0;
+        mY[0] = 0.0;
+        mSize = 1;
+
+        mLongitudeToMeter = LocationFilter.DEG_TO_METER * Math.cos(Math.toRadians(fix.getLatitude()));
+    }
+
+    private Fix keep(Fix fix) {
+
+        ++mOutputCount;
+        mKept.set(fix);
+        return mKept;
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * TrackSmoother
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import com.villoren.android.kalmanlocationmanager.lib.log.TrackLogWriter;
+import com.villoren.android.kalmanlocationmanager.lib.replay.FixSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Offline Rauch-Tung-Striebel smoother for recorded tracks.
+ * <p>
+ * A forward pass runs the same filter as {@link LocationFilter} (in degrees, real delta times) over every
+ * provider reading, and stores each filtered state and covariance in a temporary file. A backward pass then
+ * combines each state with the smoothed state that follows it, so every fix benefits from the whole track.
+ * Both passes go through a buffer of a fixed number of records, so memory does not depend on the track length.
+ * <p>
+ * Smoothed fixes have provider {@link LocationFilter#KALMAN_PROVIDER KALMAN_PROVIDER}, the time of their
+ * reading, speed and bearing from the smoothed velocity, and the standard deviation of the smoothed latitude
+ * as accuracy. Not thread safe.
+ */
+public class TrackSmoother {
+
+    /**
+     * Default number of records read or written at once.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private static final double NANOS_TO_TIME_STEP = LocationFilter.TIME_STEP / 1e9;
+
+    // Axes
+    private static final int LATITUDE = 0;
+    private static final int LONGITUDE = 1;
+    private static final int ALTITUDE = 2;
+    private static final int AXES = 3;
+
+    // State and covariance of an axis, as in Tracker1D
+    private static final int XA = Tracker1D.STATE_POSITION;
+    private static final int XB = Tracker1D.STATE_VELOCITY;
+    private static final int PA = Tracker1D.STATE_POSITION_VARIANCE;
+    private static final int PB = Tracker1D.STATE_COVARIANCE;
+    private static final int PD = Tracker1D.STATE_VELOCITY_VARIANCE;
+    private static final int AXIS_SIZE = Tracker1D.STATE_SIZE;
+
+    // Temporary record layout
+    private static final int OFFSET_TIME = 0;
+    private static final int OFFSET_NANOS = 8;
+    private static final int OFFSET_DT = 16;
+    private static final int OFFSET_FLAGS = 24;
+    private static final int OFFSET_AXES = 32;
+    private static final int RECORD_SIZE = OFFSET_AXES + AXES * AXIS_SIZE * 8;
+
+    /**
+     * Altitude state is valid (some reading before had altitude).
+     */
+    private static final int FLAG_ALTITUDE = 1;
+
+    private static final double[] PROCESS_NOISE = {
+            LocationFilter.COORDINATE_NOISE * LocationFilter.COORDINATE_NOISE,
+            LocationFilter.COORDINATE_NOISE * LocationFilter.COORDINATE_NOISE,
+            LocationFilter.ALTITUDE_NOISE * LocationFilter.ALTITUDE_NOISE
+    };
+
+    private final File mTempDirectory;
+    private final ByteBuffer mChunk;
+    private final int mChunkSize;
+
+    /**
+     * State and covariance of every axis, for the record being processed and for the one after it.
+     */
+    private final double[] mState = new double[AXES * AXIS_SIZE];
+    private final double[] mNext = new double[AXES * AXIS_SIZE];
+
+    /**
+     * Smoother with the default chunk size, and temporary files in the default temporary directory.
+     */
+    public TrackSmoother() {
+
+        this(null, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param tempDirectory Directory of the temporary file, or null for the default temporary directory.
+     * @param chunkSize Number of records read or written at once. Memory use is about 150 bytes per record.
+     */
+    public TrackSmoother(File tempDirectory, int chunkSize) {
+
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize must be positive");
+
+        mTempDirectory = tempDirectory;
+        mChunkSize = chunkSize;
+        mChunk = ByteBuffer.allocateDirect(chunkSize * RECORD_SIZE);
+    }
+
+    /**
+     * Smooths a recorded track.
+     * <p>
+     * Estimates found in the source (providers {@link LocationFilter#KALMAN_PROVIDER KALMAN_PROVIDER} and
+     * {@link LocationFilter#SMOOTHED_PROVIDER SMOOTHED_PROVIDER}) are skipped, so a track log with readings and
+     * estimates can be given as is.
+     *
+     * @param source Provider readings, in ascending time order. Not closed.
+     * @param out Receives one smoothed fix per reading, in the same order. Not closed.
+     * @return Number of smoothed fixes.
+     * @throws IOException If the source, the output or the temporary file fail.
+     */
+    public long smooth(FixSource source, TrackLogWriter out) throws IOException {
+
+        File temp = File.createTempFile("smooth", ".tmp", mTempDirectory);
+
+        try {
+
+            RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+            try {
+
+                FileChannel channel = file.getChannel();
+
+                long count = filter(source, channel);
+                smooth(channel, count);
+                write(channel, count, out);
+
+                return count;
+
+            } finally {
+
+                file.close();
+            }
+
+        } finally {
+
+            // noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /**
+     * Forward pass, storing the filtered states.
+     */
+    private long filter(FixSource source, FileChannel channel) throws IOException {
+
+        Fix fix = new Fix((String) null);
+        double[] state = mState;
+
+        long count = 0;
+        long previousNanos = Long.MIN_VALUE;
+        boolean hasAltitude = false;
+
+        mChunk.clear();
+
+        while (source.next(fix)) {
+
+            if (LocationFilter.KALMAN_PROVIDER.equals(fix.getProvider())
+                    || LocationFilter.SMOOTHED_PROVIDER.equals(fix.getProvider()))
+                continue;
+
+            // Logs without elapsed realtime are timed by their wall clock, as in the replay engine
+            long nanos = fix.getElapsedRealtimeOrTimeNanos();
+            double dt = previousNanos == Long.MIN_VALUE || nanos <= previousNanos
+                    ? 0.0 : (nanos - previousNanos) * NANOS_TO_TIME_STEP;
+            previousNanos = Math.max(previousNanos, nanos);
+
+            // Weighted as in the online filter; a logged accuracy of 0 must not give a zero variance update
+            double accuracy = LocationFilter.getMeasurementNoise(fix.getProvider(), fix.getAccuracy());
+            double latitudeNoise = accuracy * LocationFilter.METER_TO_DEG;
+            double longitudeNoise = latitudeNoise * Math.cos(Math.toRadians(fix.getLatitude()));
+
+            if (count == 0) {
+
+                init(state, LATITUDE, fix.getLatitude(), latitudeNoise);
+                init(state, LONGITUDE, fix.getLongitude(), longitudeNoise);
+
+            } else {
+
+                predict(state, LATITUDE, dt);
+                predict(state, LONGITUDE, dt);
+            }
+
+            update(state, LATITUDE, fix.getLatitude(), latitudeNoise);
+            update(state, LONGITUDE, fix.getLongitude(), longitudeNoise);
+
+            // Altitude is predicted through readings without it
+            if (hasAltitude)
+                predict(state, ALTITUDE, dt);
+
+            if (fix.hasAltitude()) {
+
+                if (!hasAltitude)
+                    init(state, ALTITUDE, fix.getAltitude(), accuracy);
+
+                update(state, ALTITUDE, fix.getAltitude(), accuracy);
+                hasAltitude = true;
+            }
+
+            // Store
+            if (!mChunk.hasRemaining()) {
+
+                writeChunk(channel, count - mChunkSize);
+                mChunk.clear();
+            }
+
+            int record = mChunk.position();
+
+            mChunk.putLong(record + OFFSET_TIME, fix.getTime());
+            mChunk.putLong(record + OFFSET_NANOS, fix.getElapsedRealtimeNanos());
+            mChunk.putDouble(record + OFFSET_DT, dt);
+            mChunk.putInt(record + OFFSET_FLAGS, hasAltitude ? FLAG_ALTITUDE : 0);
+            putState(record, state);
+
+            mChunk.position(record + RECORD_SIZE);
+            ++count;
+        }
+
+        if (mChunk.position() > 0)
+            writeChunk(channel, count - mChunk.position() / RECORD_SIZE);
+
+        return count;
+    }
+
+    /**
+     * Backward pass, replacing the filtered states by the smoothed ones.
+     */
+    private void smooth(FileChannel channel, long count) throws IOException {
+
+        double[] state = mState, next = mNext;
+
+        // The last state is already smoothed
+        boolean first = true;
+        double nextDt = 0.0;
+        boolean nextHasAltitude = false;
+
+        for (long end = count; end > 0; end -= mChunkSize) {
+
+            long start = Math.max(0, end - mChunkSize);
+            int records = (int) (end - start);
+
+            readChunk(channel, start, records);
+
+            for (int i = records - 1; i >= 0; --i) {
+
+                int record = i * RECORD_SIZE;
+                boolean hasAltitude = (mChunk.getInt(record + OFFSET_FLAGS) & FLAG_ALTITUDE) != 0;
+
+                getState(record, state);
+
+                if (!first) {
+
+                    smooth(state, next, LATITUDE, nextDt);
+                    smooth(state, next, LONGITUDE, nextDt);
+
+                    if (hasAltitude && nextHasAltitude)
+                        smooth(state, next, ALTITUDE, nextDt);
+
+                    putState(record, state);
+                }
+
+                first = false;
+                nextDt = mChunk.getDouble(record + OFFSET_DT);
+                nextHasAltitude = hasAltitude;
+                System.arraycopy(state, 0, next, 0, state.length);
+            }
+
+            writeChunk(channel, start);
+        }
+    }
+
+    /**
+     * Writes the smoothed states as fixes.
+     */
+    private void write(FileChannel channel, long count, TrackLogWriter out) throws IOException {
+
+        Fix fix = new Fix(LocationFilter.KALMAN_PROVIDER);
+        double[] state = mState;
+
+        for (long start = 0; start < count; start += mChunkSize) {
+
+            int records = (int) Math.min(mChunkSize, count - start);
+
+            readChunk(channel, start, records);
+
+            for (int i = 0; i < records; ++i) {
+
+                int record = i * RECORD_SIZE;
+
+                getState(record, state);
+
+                double latitude = state[LATITUDE * AXIS_SIZE + XA];
+                double north = state[LATITUDE * AXIS_SIZE + XB] * LocationFilter.DEG_TO_METER;
+                double east = state[LONGITUDE * AXIS_SIZE + XB] * LocationFilter.DEG_TO_METER
+                        * Math.cos(Math.toRadians(latitude));
+                double bearing = Math.toDegrees(Math.atan2(east, north));
+
+                fix.reset();
+                fix.setTime(mChunk.getLong(record + OFFSET_TIME));
+                fix.setElapsedRealtimeNanos(mChunk.getLong(record + OFFSET_NANOS));
+                fix.setLatitude(latitude);
+                fix.setLongitude(state[LONGITUDE * AXIS_SIZE + XA]);
+                fix.setAccuracy((float) (Math.sqrt(state[LATITUDE * AXIS_SIZE + PA]) * LocationFilter.DEG_TO_METER));
+                fix.setSpeed((float) Math.sqrt(north * north + east * east));
+                fix.setBearing((float) (bearing < 0.0 ? bearing + 360.0 : bearing));
+
+                if ((mChunk.getInt(record + OFFSET_FLAGS) & FLAG_ALTITUDE) != 0)
+                    fix.setAltitude(state[ALTITUDE * AXIS_SIZE + XA]);
+
+                out.append(fix);
+            }
+        }
+    }
+
+    /**
+     * Same as {@link Tracker1D#setState}, with a unit time step.
+     */
+    private static void init(double[] state, int axis, double position, double noise) {
+
+        int i = axis * AXIS_SIZE;
+        double n2 = noise * noise;
+
+        state[i + XA] = position;
+        state[i + XB] = 0.0;
+        state[i + PA] = n2 / 4.0;
+        state[i + PB] = n2 / 2.0;
+        state[i + PD] = n2;
+    }
+
+    /**
+     * Same as {@link Tracker1D#predict(double, double)}, without quantization.
+     */
+    private static void predict(double[] state, int axis, double dt) {
+
+        int i = axis * AXIS_SIZE;
+        double n2 = PROCESS_NOISE[axis];
+        double dt2 = dt * dt;
+
+        double pb = state[i + PB], pd = state[i + PD];
+
+        state[i + XA] += state[i + XB] * dt;
+        state[i + PA] += dt * (2.0 * pb + dt * pd) + n2 * dt2 * dt2 / 4.0;
+        state[i + PB] = pb + dt * pd + n2 * dt2 * dt / 2.0;
+        state[i + PD] = pd + n2 * dt2;
+    }
+
+    /**
+     * Same as {@link Tracker1D#update}.
+     */
+    private static void update(double[] state, int axis, double position, double noise) {
+
+        int i = axis * AXIS_SIZE;
+        double pa = state[i + PA], pb = state[i + PB];
+
+        double si = 1.0 / (pa + noise * noise);
+        double ka = pa * si;
+        double kb = pb * si;
+        double y = position - state[i + XA];
+
+        state[i + XA] += ka * y;
+        state[i + XB] += kb * y;
+        state[i + PA] = pa - ka * pa;
+        state[i + PB] = pb - ka * pb;
+        state[i + PD] -= kb * pb;
+    }
+
+    private static void smooth(double[] state, double[] next, int axis, double dt) {
+
+        Tracker1D.smooth(state, next, axis * AXIS_SIZE, dt, PROCESS_NOISE[axis]);
+    }
+
+    private void getState(int record, double[] state) {
+
+        for (int i = 0; i < state.length; ++i)
+            state[i] = mChunk.getDouble(record + OFFSET_AXES + i * 8);
+    }
+
+    private void putState(int record, double[] state) {
+
+        for (int i = 0; i < state.length; ++i)
+            mChunk.putDouble(record + OFFSET_AXES + i * 8, state[i]);
+    }
+
+    /**
+     * Writes the chunk, from 0 to its position, at the given record.
+     */
+    private void writeChunk(FileChannel channel, long index) throws IOException {
+
+        mChunk.flip();
+
+        long position = index * RECORD_SIZE;
+
+        while (mChunk.hasRemaining())
+            position += channel.write(mChunk, position);
+    }
+
+    /**
+     * Reads the given records into the chunk, from position 0.
+     */
+    private void readChunk(FileChannel channel, long index, int records) throws IOException {
+
+        mChunk.clear();
+        mChunk.limit(records * RECORD_SIZE);
+
+        long position = index * RECORD_SIZE;
+
+        while (mChunk.hasRemaining()) {
+
+            int read = channel.read(mChunk, position);
+
+            if (read < 0)
+                throw new IOException("Temporary file truncated");
+
+            position += read;
+        }
+    }
+}
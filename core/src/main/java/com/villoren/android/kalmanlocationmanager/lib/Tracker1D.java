@@ -0,0 +1,363 @@
+/*
+ * Tracker1D
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import java.util.Arrays;
+
+/**
+ * Kalman filter tracking in one dimension.
+ */
+public class Tracker1D {
+
+    /**
+     * Resolution of the delta times given to {@link #predict(double, double)}, in time step units.
+     */
+    public static final double DT_QUANTUM = 0.001;
+
+    /**
+     * Number of entries of the delta time cache (a power of two).
+     */
+    private static final int DT_CACHE_SIZE = 16;
+
+    private static final double DT_QUANTA_PER_STEP = 1.0 / DT_QUANTUM;
+
+    // Layout of a state copied with getState: position, velocity and the three distinct covariance terms
+    static final int STATE_POSITION = 0;
+    static final int STATE_VELOCITY = 1;
+    static final int STATE_POSITION_VARIANCE = 2;
+    static final int STATE_COVARIANCE = 3;
+    static final int STATE_VELOCITY_VARIANCE = 4;
+    static final int STATE_SIZE = 5;
+
+    // Settings
+
+    /**
+     * Time step
+     */
+    private final double mt, mt2, mt2d2, mt3d2, mt4d4;
+
+    /**
+     * Process noise covariance
+     */
+    private final double mQa, mQb, mQc, mQd;
+
+    /**
+     * Process noise variance, to calculate covariance for arbitrary delta times
+     */
+    private final double mN2;
+
+    /**
+     * Direct mapped cache of transition and process noise terms, keyed by quantized delta time
+     */
+    private final long[] mDtKey = new long[DT_CACHE_SIZE];
+    private final double[] mDt = new double[DT_CACHE_SIZE];
+    private final double[] mDt2d2 = new double[DT_CACHE_SIZE];
+    private final double[] mDtQa = new double[DT_CACHE_SIZE];
+    private final double[] mDtQb = new double[DT_CACHE_SIZE];
+    private final double[] mDtQd = new double[DT_CACHE_SIZE];
+
+    /**
+     * Estimated state
+     */
+    private double mXa, mXb;
+
+    /**
+     * Estimated covariance
+     */
+    private double mPa, mPb, mPc, mPd;
+
+    /**
+     * Observer of the correction steps, or null, and the axis reported to it
+     */
+    private FilterObserver mObserver;
+    private int mAxis;
+
+    /**
+     * Creates a tracker.
+     *
+     * @param timeStep Delta time between predictions. Usefull to calculate speed.
+     * @param processNoise Standard deviation to calculate noise covariance from.
+     */
+    public Tracker1D(double timeStep, double processNoise) {
+
+        // Lookup time step
+        mt = timeStep;
+        mt2 = mt * mt;
+        mt2d2 = mt2 / 2.0;
+        mt3d2 = mt2 * mt / 2.0;
+        mt4d4 = mt2 * mt2 / 4.0;
+
+        // Process noise covariance
+        double n2 = processNoise * processNoise;
+        mN2 = n2;
+        mQa = n2 * mt4d4;
+        mQb = n2 * mt3d2;
+        mQc = mQb;
+        mQd = n2 * mt2;
+
+        // Estimated covariance
+        mPa = mQa;
+        mPb = mQb;
+        mPc = mQc;
+        mPd = mQd;
+
+        // Nothing cached yet
+        Arrays.fill(mDtKey, -1L);
+    }
+
+    /**
+     * Reset the filter to the given state.
+     * <p>
+     * Should be called after creation, unless position and velocity are assumed to be both zero.
+     *
+     * @param position
+     * @param velocity
+     * @param noise
+     */
+    public void setState(double position, double velocity, double noise) {
+
+        // State vector
+        mXa = position;
+        mXb = velocity;
+
+        // Covariance
+        double n2 = noise * noise;
+        mPa = n2 * mt4d4;
+        mPb = n2 * mt3d2;
+        mPc = mPb;
+        mPd = n2 * mt2;
+    }
+
+    /**
+     * Update (correct) with the given measurement.
+     *
+     * @param position
+     * @param noise
+     */
+    public void update(double position, double noise) {
+
+        double r = noise * noise;
+
+        //  y   =  z   -   H  . x
+        double y = position - mXa;
+
+        // S = H.P.H' + R
+        double s = mPa + r;
+        double si = 1.0 / s;
+
+        // K = P.H'.S^(-1)
+        double Ka = mPa * si;
+        double Kb = mPc * si;
+
+        // x = x + K.y
+        mXa = mXa + Ka * y;
+        mXb = mXb + Kb * y;
+
+        // P = P - K.(H.P)
+        double Pa = mPa - Ka * mPa;
+        double Pb = mPb - Ka * mPb;
+        double Pc = mPc - Kb * mPa;
+        double Pd = mPd - Kb * mPb;
+
+        mPa = Pa;
+        mPb = Pb;
+        mPc = Pc;
+        mPd = Pd;
+
+        if (mObserver != null)
+            mObserver.onUpdate(mAxis, y, s, Ka, Kb);
+    }
+
+    /**
+     * Reports each correction step to the given observer.
+     *
+     * @param observer Observer, or null to stop reporting.
+     * @param axis Axis given to the observer, see {@link FilterObserver}.
+     */
+    public void setObserver(FilterObserver observer, int axis) {
+
+        mObserver = observer;
+        mAxis = axis;
+    }
+
+    /**
+     * Predict state.
+     *
+     * @param acceleration Should be 0 unless there's some sort of control input (a gas pedal, for instance).
+     */
+    public void predict(double acceleration) {
+
+        // x = F.x + G.u
+        mXa = mXa + mXb * mt + acceleration * mt2d2;
+        mXb = mXb + acceleration * mt;
+
+        // P = F.P.F' + Q
+        double Pdt = mPd * mt;
+        double FPFtb = mPb + Pdt;
+        double FPFta = mPa + mt * (mPc + FPFtb);
+        double FPFtc = mPc + Pdt;
+        double FPFtd = mPd;
+
+        mPa = FPFta + mQa;
+        mPb = FPFtb + mQb;
+        mPc = FPFtc + mQc;
+        mPd = FPFtd + mQd;
+    }
+
+    /**
+     * Predict state after the given delta time, instead of the time step given at construction.
+     * <p>
+     * The delta time is quantized to {@link #DT_QUANTUM}; transition and process noise terms are cached per
+     * quantized value, so steady prediction rates cost the same as {@link #predict(double)}.
+     *
+     * @param acceleration Should be 0 unless there's some sort of control input (a gas pedal, for instance).
+     * @param dt Delta time since the previous prediction or correction, in the units of the time step.
+     *           Negative values are treated as 0.
+     */
+    public void predict(double acceleration, double dt) {
+
+        long key = dt > 0.0 ? (long) (dt * DT_QUANTA_PER_STEP + 0.5) : 0L;
+        int slot = (int) (key & (DT_CACHE_SIZE - 1));
+
+        // Lookup time step
+        if (mDtKey[slot] != key) {
+
+            double t = key * DT_QUANTUM;
+            double t2 = t * t;
+
+            mDtKey[slot] = key;
+            mDt[slot] = t;
+            mDt2d2[slot] = t2 / 2.0;
+            mDtQa[slot] = mN2 * t2 * t2 / 4.0;
+            mDtQb[slot] = mN2 * t2 * t / 2.0;
+            mDtQd[slot] = mN2 * t2;
+        }
+
+        final double t = mDt[slot];
+        final double Qb = mDtQb[slot];
+
+        // x = F.x + G.u
+        mXa = mXa + mXb * t + acceleration * mDt2d2[slot];
+        mXb = mXb + acceleration * t;
+
+        // P = F.P.F' + Q
+        double Pdt = mPd * t;
+        double FPFtb = mPb + Pdt;
+        double FPFta = mPa + t * (mPc + FPFtb);
+        double FPFtc = mPc + Pdt;
+        double FPFtd = mPd;
+
+        mPa = FPFta + mDtQa[slot];
+        mPb = FPFtb + Qb;
+        mPc = FPFtc + Qb;
+        mPd = FPFtd + mDtQd[slot];
+    }
+
+    /**
+     * @return Estimated position.
+     */
+    public double getPosition() { return mXa; }
+
+    /**
+     * Shifts the position estimate, keeping velocity and covariance (e.g. when the origin of the frame moves).
+     */
+    public void translate(double offset) { mXa += offset; }
+
+    /**
+     * @return Estimated velocity.
+     */
+    public double getVelocity() { return mXb; }
+
+    /**
+     * @return Accuracy
+     */
+    public double getAccuracy() { return Math.sqrt(mPd / mt2); }
+
+    /**
+     * Copies state and covariance into the given array, {@link #STATE_SIZE} values from the given offset.
+     */
+    void getState(double[] state, int offset) {
+
+        state[offset + STATE_POSITION] = mXa;
+        state[offset + STATE_VELOCITY] = mXb;
+        state[offset + STATE_POSITION_VARIANCE] = mPa;
+        state[offset + STATE_COVARIANCE] = mPb;
+        state[offset + STATE_VELOCITY_VARIANCE] = mPd;
+    }
+
+    /**
+     * Rauch-Tung-Striebel step: combines a filtered state with the smoothed state that follows it, dt time steps
+     * later, in place.
+     *
+     * @param state Filtered state, replaced by the smoothed one (layout of {@link #getState}).
+     * @param next Smoothed state that follows.
+     * @param offset Offset of both states in their arrays.
+     * @param dt Delta time between both states, in time steps.
+     * @param processNoiseVariance Square of the process noise the filter used.
+     */
+    static void smooth(double[] state, double[] next, int offset, double dt, double processNoiseVariance) {
+
+        int i = offset;
+        double n2 = processNoiseVariance;
+        double dt2 = dt * dt;
+
+        double xa = state[i + STATE_POSITION], xb = state[i + STATE_VELOCITY];
+        double pa = state[i + STATE_POSITION_VARIANCE], pb = state[i + STATE_COVARIANCE], pd = state[i + STATE_VELOCITY_VARIANCE];
+
+        // Predicted state and covariance: F.x, F.P.F' + Q
+        double xpa = xa + xb * dt;
+        double ppa = pa + dt * (2.0 * pb + dt * pd) + n2 * dt2 * dt2 / 4.0;
+        double ppb = pb + dt * pd + n2 * dt2 * dt / 2.0;
+        double ppd = pd + n2 * dt2;
+
+        // C = P.F'.Pp^(-1)
+        double det = ppa * ppd - ppb * ppb;
+
+        if (!(det > 0.0))
+            return;
+
+        double ma = pa + pb * dt, mb = pb, mc = pb + pd * dt, md = pd;
+        double ca = (ma * ppd - mb * ppb) / det;
+        double cb = (mb * ppa - ma * ppb) / det;
+        double cc = (mc * ppd - md * ppb) / det;
+        double cd = (md * ppa - mc * ppb) / det;
+
+        // x = x + C.(xs - xp)
+        double ya = next[i + STATE_POSITION] - xpa;
+        double yb = next[i + STATE_VELOCITY] - xb;
+
+        state[i + STATE_POSITION] = xa + ca * ya + cb * yb;
+        state[i + STATE_VELOCITY] = xb + cc * ya + cd * yb;
+
+        // P = P + C.(Ps - Pp).C'
+        double da = next[i + STATE_POSITION_VARIANCE] - ppa, db = next[i + STATE_COVARIANCE] - ppb, dd = next[i + STATE_VELOCITY_VARIANCE] - ppd;
+        double ea = ca * da + cb * db, eb = ca * db + cb * dd;
+        double ec = cc * da + cd * db, ed = cc * db + cd * dd;
+
+        state[i + STATE_POSITION_VARIANCE] = pa + ea * ca + eb * cb;
+        state[i + STATE_COVARIANCE] = pb + ea * cc + eb * cd;
+        state[i + STATE_VELOCITY_VARIANCE] = pd + ec * cc + ed * cd;
+    }
+}
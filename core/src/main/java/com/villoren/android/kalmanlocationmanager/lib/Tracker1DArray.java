@@ -0,0 +1,254 @@
+/*
+ * Tracker1DArray
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib;
+
+import java.util.Arrays;
+
+/**
+ * Many {@link Tracker1D} filters sharing the same settings, stored as a structure of arrays.
+ * <p>
+ * State and covariance of each track live in primitive columns (48 bytes per track), so predictions
+ * and corrections over index ranges run in tight loops without touching any object per track.
+ */
+public class Tracker1DArray {
+
+    // Settings
+
+    /**
+     * Time step
+     */
+    private final double mt, mt2, mt2d2, mt3d2, mt4d4;
+
+    /**
+     * Process noise variance, and covariance for the time step
+     */
+    private final double mN2;
+    private final double mQa, mQb, mQc, mQd;
+
+    /**
+     * Estimated state, one entry per track
+     */
+    private final double[] mXa, mXb;
+
+    /**
+     * Estimated covariance, one entry per track
+     */
+    private final double[] mPa, mPb, mPc, mPd;
+
+    /**
+     * Creates the trackers.
+     *
+     * @param capacity Number of tracks.
+     * @param timeStep Delta time between predictions. Usefull to calculate speed.
+     * @param processNoise Standard deviation to calculate noise covariance from.
+     */
+    public Tracker1DArray(int capacity, double timeStep, double processNoise) {
+
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity can't be negative");
+
+        // Lookup time step
+        mt = timeStep;
+        mt2 = mt * mt;
+        mt2d2 = mt2 / 2.0;
+        mt3d2 = mt2 * mt / 2.0;
+        mt4d4 = mt2 * mt2 / 4.0;
+
+        // Process noise covariance
+        double n2 = processNoise * processNoise;
+        mN2 = n2;
+        mQa = n2 * mt4d4;
+        mQb = n2 * mt3d2;
+        mQc = mQb;
+        mQd = n2 * mt2;
+
+        mXa = new double[capacity];
+        mXb = new double[capacity];
+        mPa = new double[capacity];
+        mPb = new double[capacity];
+        mPc = new double[capacity];
+        mPd = new double[capacity];
+
+        // Estimated covariance
+        Arrays.fill(mPa, mQa);
+        Arrays.fill(mPb, mQb);
+        Arrays.fill(mPc, mQc);
+        Arrays.fill(mPd, mQd);
+    }
+
+    /**
+     * @return Number of tracks.
+     */
+    public int capacity() { return mXa.length; }
+
+    /**
+     * Reset the given track to the given state.
+     *
+     * @see Tracker1D#setState(double, double, double)
+     */
+    public void setState(int track, double position, double velocity, double noise) {
+
+        // State vector
+        mXa[track] = position;
+        mXb[track] = velocity;
+
+        // Covariance
+        double n2 = noise * noise;
+        mPa[track] = n2 * mt4d4;
+        mPb[track] = n2 * mt3d2;
+        mPc[track] = mPb[track];
+        mPd[track] = n2 * mt2;
+    }
+
+    /**
+     * Update (correct) the given track with the given measurement.
+     *
+     * @see Tracker1D#update(double, double)
+     */
+    public void update(int track, double position, double noise) {
+
+        final double Pa = mPa[track], Pb = mPb[track], Pc = mPc[track], Pd = mPd[track];
+
+        //  y   =  z   -   H  . x
+        double y = position - mXa[track];
+
+        // S = H.P.H' + R
+        double si = 1.0 / (Pa + noise * noise);
+
+        // K = P.H'.S^(-1)
+        double Ka = Pa * si;
+        double Kb = Pc * si;
+
+        // x = x + K.y
+        mXa[track] += Ka * y;
+        mXb[track] += Kb * y;
+
+        // P = P - K.(H.P)
+        mPa[track] = Pa - Ka * Pa;
+        mPb[track] = Pb - Ka * Pb;
+        mPc[track] = Pc - Kb * Pa;
+        mPd[track] = Pd - Kb * Pb;
+    }
+
+    /**
+     * Predict the given track, with no control input.
+     */
+    public void predict(int track) {
+
+        predict(track, track + 1);
+    }
+
+    /**
+     * Predict the given track after the given delta time, instead of the time step given at construction.
+     *
+     * @param dt Delta time since the previous prediction or correction, in the units of the time step.
+     *           Negative values are treated as 0.
+     * @see Tracker1D#predict(double, double)
+     */
+    public void predictBy(int track, double dt) {
+
+        final double t = Math.max(dt, 0.0);
+        final double t2 = t * t;
+
+        // x = F.x
+        mXa[track] += mXb[track] * t;
+
+        // P = F.P.F' + Q
+        double Pd = mPd[track];
+        double Pdt = Pd * t;
+        double FPFtb = mPb[track] + Pdt;
+        double FPFta = mPa[track] + t * (mPc[track] + FPFtb);
+        double FPFtc = mPc[track] + Pdt;
+        double Qb = mN2 * t2 * t / 2.0;
+
+        mPa[track] = FPFta + mN2 * t2 * t2 / 4.0;
+        mPb[track] = FPFtb + Qb;
+        mPc[track] = FPFtc + Qb;
+        mPd[track] = Pd + mN2 * t2;
+    }
+
+    /**
+     * Predict all tracks in {@code [from, to)}, with no control input.
+     *
+     * @param from First track, inclusive.
+     * @param to Last track, exclusive.
+     */
+    public void predict(int from, int to) {
+
+        final double t = mt;
+        final double[] xa = mXa, xb = mXb, pa = mPa, pb = mPb, pc = mPc, pd = mPd;
+
+        for (int i = from; i < to; i++) {
+
+            // x = F.x
+            xa[i] += xb[i] * t;
+
+            // P = F.P.F' + Q
+            double Pd = pd[i];
+            double Pdt = Pd * t;
+            double FPFtb = pb[i] + Pdt;
+            double FPFta = pa[i] + t * (pc[i] + FPFtb);
+            double FPFtc = pc[i] + Pdt;
+
+            pa[i] = FPFta + mQa;
+            pb[i] = FPFtb + mQb;
+            pc[i] = FPFtc + mQc;
+            pd[i] = Pd + mQd;
+        }
+    }
+
+    /**
+     * @return Estimated position of the given track.
+     */
+    public double getPosition(int track) { return mXa[track]; }
+
+    /**
+     * @return Estimated velocity of the given track.
+     */
+    public double getVelocity(int track) { return mXb[track]; }
+
+    /**
+     * @return Accuracy of the given track.
+     */
+    public double getAccuracy(int track) { return Math.sqrt(mPd[track] / mt2); }
+
+    /**
+     * @param dt Delta time, in the units of the time step. Negative values are treated as 0.
+     * @return Position of the given track extrapolated after the given delta time, without changing its state.
+     */
+    public double getPosition(int track, double dt) { return mXa[track] + mXb[track] * Math.max(dt, 0.0); }
+
+    /**
+     * @param dt Delta time, in the units of the time step. Negative values are treated as 0.
+     * @return Accuracy of the given track after the given delta time, as {@link #predictBy(int, double)} would
+     *         leave it, without changing its state.
+     */
+    public double getAccuracy(int track, double dt) {
+
+        double t = Math.max(dt, 0.0);
+
+        return Math.sqrt((mPd[track] + mN2 * t * t) / mt2);
+    }
+}
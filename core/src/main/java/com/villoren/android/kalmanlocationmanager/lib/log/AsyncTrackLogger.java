@@ -0,0 +1,257 @@
+/*
+ * AsyncTrackLogger
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.log;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Logs fixes to a {@link TrackLogWriter} from a dedicated writer thread.
+ * <p>
+ * {@link #log(Fix)} copies the fix into a bounded ring of preallocated slots and returns at once; it never
+ * blocks on storage. The writer thread appends queued fixes as a group when flushRecords of them are waiting
+ * or flushInterval milliseconds have passed, whichever comes first. When the ring is full, new fixes are
+ * dropped and counted. Any thread may log.
+ */
+public class AsyncTrackLogger implements Closeable {
+
+    private final TrackLogWriter mWriter;
+    private final int mFlushRecords;
+    private final long mFlushInterval;
+    private final Thread mThread;
+
+    /**
+     * Ring of preallocated slots. Slots in [mHead, mHead + mCount) are queued.
+     */
+    private final Fix[] mRing;
+    private int mHead;
+    private int mCount;
+
+    // Statistics, guarded by this
+    private int mMaxCount;
+    private long mLogged;
+    private long mDropped;
+    private IOException mError;
+
+    private boolean mClosed;
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param writer Log to write to. Closed by the writer thread after {@link #close()}.
+     * @param capacity Maximum number of queued fixes.
+     * @param flushRecords Number of queued fixes that triggers a write.
+     * @param flushInterval Maximum time a fix waits before being written, in milliseconds.
+     */
+    public AsyncTrackLogger(TrackLogWriter writer, int capacity, int flushRecords, long flushInterval) {
+
+        if (writer == null)
+            throw new IllegalArgumentException("writer can't be null");
+
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        if (flushRecords < 1 || flushRecords > capacity)
+            throw new IllegalArgumentException("flushRecords must be in [1, capacity]");
+
+        if (flushInterval < 1)
+            throw new IllegalArgumentException("flushInterval must be positive");
+
+        mWriter = writer;
+        mFlushRecords = flushRecords;
+        mFlushInterval = flushInterval;
+
+        mRing = new Fix[capacity];
+
+        for (int i = 0; i < capacity; i++)
+            mRing[i] = new Fix((String) null);
+
+        mThread = new Thread(mWriterLoop, AsyncTrackLogger.class.getSimpleName());
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Queues a copy of the given fix.
+     *
+     * @param fix Fix to log. Not retained.
+     * @return False if the fix was dropped, because the queue is full or the logger closed.
+     */
+    public synchronized boolean log(Fix fix) {
+
+        if (mClosed || mCount == mRing.length) {
+
+            mDropped++;
+            return false;
+        }
+
+        mRing[(mHead + mCount) % mRing.length].set(fix);
+        mCount++;
+
+        if (mCount > mMaxCount)
+            mMaxCount = mCount;
+
+        if (mCount == mFlushRecords)
+            notify();
+
+        return true;
+    }
+
+    /**
+     * @return Number of fixes currently queued (back-pressure).
+     */
+    public synchronized int getQueuedCount() { return mCount; }
+
+    /**
+     * @return Highest number of fixes queued at once. Close to the capacity means the storage can't keep up.
+     */
+    public synchronized int getMaxQueuedCount() { return mMaxCount; }
+
+    /**
+     * @return Number of fixes written to the log.
+     */
+    public synchronized long getLoggedCount() { return mLogged; }
+
+    /**
+     * @return Number of fixes dropped because the queue was full or the logger closed.
+     */
+    public synchronized long getDroppedCount() { return mDropped; }
+
+    /**
+     * @return The error that stopped the writer thread, or null.
+     */
+    public synchronized IOException getError() { return mError; }
+
+    /**
+     * Stops accepting fixes. The writer thread writes what is queued, closes the log and ends.
+     * Does not wait for it, see {@link #awaitTermination(long)}.
+     */
+    @Override
+    public synchronized void close() {
+
+        mClosed = true;
+        notify();
+    }
+
+    /**
+     * Waits for the writer thread to end after {@link #close()}.
+     *
+     * @param timeout Maximum time to wait, in milliseconds. 0 waits forever.
+     * @return True if the writer thread ended.
+     * @throws InterruptedException If the calling thread was interrupted.
+     */
+    public boolean awaitTermination(long timeout) throws InterruptedException {
+
+        mThread.join(timeout);
+        return !mThread.isAlive();
+    }
+
+    private final Runnable mWriterLoop = new Runnable() {
+
+        @Override
+        public void run() {
+
+            try {
+
+                while (writeGroup()) { }
+
+            } catch (IOException e) {
+
+                synchronized (AsyncTrackLogger.this) {
+
+                    mError = e;
+                    mClosed = true;
+                }
+
+            } catch (InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+
+            } finally {
+
+                try {
+
+                    mWriter.close();
+
+                } catch (IOException e) {
+
+                    synchronized (AsyncTrackLogger.this) {
+
+                        if (mError == null)
+                            mError = e;
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Waits for a group of fixes and writes it.
+     *
+     * @return False once closed and drained.
+     */
+    private boolean writeGroup() throws IOException, InterruptedException {
+
+        int head, count;
+        boolean closed;
+
+        synchronized (this) {
+
+            long deadline = System.currentTimeMillis() + mFlushInterval;
+
+            while (!mClosed && mCount < mFlushRecords) {
+
+                long wait = deadline - System.currentTimeMillis();
+
+                if (wait <= 0)
+                    break;
+
+                wait(wait);
+            }
+
+            head = mHead;
+            count = mCount;
+            closed = mClosed;
+        }
+
+        // Queued slots are only touched by this thread until released below
+        for (int i = 0; i < count; i++)
+            mWriter.append(mRing[(head + i) % mRing.length]);
+
+        if (count > 0)
+            mWriter.flush();
+
+        synchronized (this) {
+
+            mHead = (mHead + count) % mRing.length;
+            mCount -= count;
+            mLogged += count;
+
+            return !(closed && mCount == 0);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * TrackLogFormat
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.log;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.LocationFilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Layout of track log files.
+ * <p>
+ * A file is a header followed by fixed-width records, all little endian:
+ * <pre>
+ * header:  int magic, short version, short headerSize, short recordSize, short schemaLength,
+ *          schema (US-ASCII, schemaLength bytes), zero padding up to headerSize
+ * record:  long time, long elapsedRealtimeNanos, double latitude, double longitude, double altitude,
+ *          float accuracy, float speed, float bearing, byte provider, byte flags, 2 bytes padding
+ * </pre>
+ * Record {@code i} starts at {@code headerSize + i * recordSize}, so random access is a multiplication.
+ */
+final class TrackLogFormat {
+
+    static final int MAGIC = 0x4B4C4F47; // "KLOG"
+    static final short VERSION = 1;
+
+    static final int RECORD_SIZE = 56;
+
+    /**
+     * Human readable description of a record, stored in the header.
+     */
+    static final String SCHEMA = "time:i64,elapsedRealtimeNanos:i64,latitude:f64,longitude:f64,altitude:f64,"
+            + "accuracy:f32,speed:f32,bearing:f32,provider:u8,flags:u8,pad:u16";
+
+    static final int HEADER_SIZE = 256;
+
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // Flags
+    private static final int HAS_ALTITUDE = 1;
+    private static final int HAS_SPEED = 2;
+    private static final int HAS_BEARING = 4;
+
+    // Provider codes, index in this array
+    private static final String[] PROVIDERS = {
+            LocationFilter.GPS_PROVIDER,
+            LocationFilter.NETWORK_PROVIDER,
+            LocationFilter.KALMAN_PROVIDER,
+            LocationFilter.PASSIVE_PROVIDER,
+            LocationFilter.FUSED_PROVIDER,
+            LocationFilter.SMOOTHED_PROVIDER
+    };
+
+    private static final int UNKNOWN_PROVIDER = 0xFF;
+
+    private TrackLogFormat() { }
+
+    /**
+     * Writes the header into the given buffer, which must have {@link #HEADER_SIZE} bytes remaining.
+     */
+    static void writeHeader(ByteBuffer buffer) {
+
+        byte[] schema = SCHEMA.getBytes(Charset.forName("US-ASCII"));
+        int start = buffer.position();
+
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) HEADER_SIZE);
+        buffer.putShort((short) RECORD_SIZE);
+        buffer.putShort((short) schema.length);
+        buffer.put(schema);
+
+        while (buffer.position() - start < HEADER_SIZE)
+            buffer.put((byte) 0);
+    }
+
+    /**
+     * Validates the header in the given buffer.
+     *
+     * @param fileSize Size of the file, in bytes.
+     * @return Header size, i.e. offset of the first record.
+     * @throws IOException If this is not a track log this version can read.
+     */
+    static int readHeader(ByteBuffer buffer, long fileSize) throws IOException {
+
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC)
+            throw new IOException("Not a track log");
+
+        short version = buffer.getShort();
+
+        if (version != VERSION)
+            throw new IOException("Unsupported track log version " + version);
+
+        int headerSize = buffer.getShort();
+        int recordSize = buffer.getShort();
+        int schemaLength = buffer.getShort();
+
+        if (recordSize != RECORD_SIZE)
+            throw new IOException("Unsupported record size " + recordSize);
+
+        if (headerSize < 12 + schemaLength || headerSize > fileSize)
+            throw new IOException("Invalid header size " + headerSize);
+
+        return headerSize;
+    }
+
+    /**
+     * Writes one record.
+     */
+    static void writeRecord(ByteBuffer buffer, Fix fix) {
+
+        int flags = (fix.hasAltitude() ? HAS_ALTITUDE : 0)
+                | (fix.hasSpeed() ? HAS_SPEED : 0)
+                | (fix.hasBearing() ? HAS_BEARING : 0);
+
+        buffer.putLong(fix.getTime());
+        buffer.putLong(fix.getElapsedRealtimeNanos());
+        buffer.putDouble(fix.getLatitude());
+        buffer.putDouble(fix.getLongitude());
+        buffer.putDouble(fix.getAltitude());
+        buffer.putFloat(fix.getAccuracy());
+        buffer.putFloat(fix.getSpeed());
+        buffer.putFloat(fix.getBearing());
+        buffer.put((byte) providerCode(fix.getProvider()));
+        buffer.put((byte) flags);
+        buffer.putShort((short) 0);
+    }
+
+    /**
+     * Reads one record.
+     */
+    static void readRecord(ByteBuffer buffer, Fix fix) {
+
+        fix.reset();
+        fix.setTime(buffer.getLong());
+        fix.setElapsedRealtimeNanos(buffer.getLong());
+        fix.setLatitude(buffer.getDouble());
+        fix.setLongitude(buffer.getDouble());
+
+        double altitude = buffer.getDouble();
+        fix.setAccuracy(buffer.getFloat());
+        float speed = buffer.getFloat();
+        float bearing = buffer.getFloat();
+        int provider = buffer.get() & 0xFF;
+        int flags = buffer.get();
+        buffer.getShort();
+
+        fix.setProvider(provider < PROVIDERS.length ? PROVIDERS[provider] : null);
+
+        if ((flags & HAS_ALTITUDE) != 0)
+            fix.setAltitude(altitude);
+
+        if ((flags & HAS_SPEED) != 0)
+            fix.setSpeed(speed);
+
+        if ((flags & HAS_BEARING) != 0)
+            fix.setBearing(bearing);
+    }
+
+    private static int providerCode(String provider) {
+
+        for (int i = 0; i < PROVIDERS.length; i++) {
+
+            if (PROVIDERS[i].equals(provider))
+                return i;
+        }
+
+        return UNKNOWN_PROVIDER;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * TrackLogReader
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.log;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.replay.FixSource;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads binary track logs written by {@link TrackLogWriter}.
+ * <p>
+ * Records can be read by index ({@link #read(long, Fix)}) or sequentially as a {@link FixSource}, for instance
+ * to feed a {@link com.villoren.android.kalmanlocationmanager.lib.replay.ReplayEngine ReplayEngine}.
+ * Sequential reads go through a buffer of many records. Not thread safe.
+ */
+public class TrackLogReader implements FixSource {
+
+    private static final int BUFFERED_RECORDS = 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+    private final ByteBuffer mRecord;
+    private final int mHeaderSize;
+    private final long mRecordCount;
+
+    /**
+     * Index of the next record returned by {@link #next(Fix)}.
+     */
+    private long mNext;
+
+    /**
+     * Opens the given log. Records appended after opening are not seen.
+     *
+     * @param file Log file.
+     * @throws IOException If the file can't be read or is not a track log.
+     */
+    public TrackLogReader(File file) throws IOException {
+
+        mFile = new RandomAccessFile(file, "r");
+        mChannel = mFile.getChannel();
+
+        mBuffer = ByteBuffer.allocateDirect(BUFFERED_RECORDS * TrackLogFormat.RECORD_SIZE);
+        mBuffer.order(TrackLogFormat.ORDER);
+
+        mRecord = ByteBuffer.allocate(TrackLogFormat.RECORD_SIZE);
+        mRecord.order(TrackLogFormat.ORDER);
+
+        try {
+
+            mBuffer.limit(TrackLogFormat.HEADER_SIZE);
+            mChannel.read(mBuffer, 0);
+            mBuffer.flip();
+
+            mHeaderSize = TrackLogFormat.readHeader(mBuffer, mChannel.size());
+            mRecordCount = Math.max(0, (mChannel.size() - mHeaderSize) / TrackLogFormat.RECORD_SIZE);
+
+        } catch (IOException e) {
+
+            mFile.close();
+            throw e;
+        }
+
+        // Nothing buffered yet
+        mBuffer.clear();
+        mBuffer.limit(0);
+    }
+
+    /**
+     * @return Number of complete records in the log.
+     */
+    public long getRecordCount() { return mRecordCount; }
+
+    /**
+     * Reads the record at the given index.
+     *
+     * @param index Record index, in {@code [0, getRecordCount())}.
+     * @param fix Fix to fill.
+     * @throws IOException If the file can't be read.
+     */
+    public void read(long index, Fix fix) throws IOException {
+
+        if (index < 0 || index >= mRecordCount)
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mRecordCount);
+
+        mRecord.clear();
+        readFully(mRecord, mHeaderSize + index * TrackLogFormat.RECORD_SIZE);
+        mRecord.flip();
+
+        TrackLogFormat.readRecord(mRecord, fix);
+    }
+
+    /**
+     * Moves the sequential read position to the given record index.
+     */
+    public void seek(long index) {
+
+        if (index < 0 || index > mRecordCount)
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mRecordCount);
+
+        mNext = index;
+        mBuffer.clear();
+        mBuffer.limit(0);
+    }
+
+    @Override
+    public boolean next(Fix fix) throws IOException {
+
+        if (mNext >= mRecordCount)
+            return false;
+
+        if (!mBuffer.hasRemaining()) {
+
+            long records = Math.min(BUFFERED_RECORDS, mRecordCount - mNext);
+
+            mBuffer.clear();
+            mBuffer.limit((int) records * TrackLogFormat.RECORD_SIZE);
+            readFully(mBuffer, mHeaderSize + mNext * TrackLogFormat.RECORD_SIZE);
+            mBuffer.flip();
+        }
+
+        TrackLogFormat.readRecord(mBuffer, fix);
+        mNext++;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        mFile.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            int read = mChannel.read(buffer, position);
+
+            if (read < 0)
+                throw new EOFException();
+
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * TrackLogWriter
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.log;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends fixes to a binary track log (see {@link TrackLogReader} and the format described in {@code TrackLogFormat}).
+ * <p>
+ * Records are gathered in a direct buffer and written to the {@link FileChannel} when it fills up or on
+ * {@link #flush()}. Appending to an existing log continues after its last complete record.
+ * Not thread safe.
+ */
+public class TrackLogWriter implements Closeable, Flushable {
+
+    /**
+     * Default number of records buffered before writing.
+     */
+    public static final int DEFAULT_BUFFERED_RECORDS = 256;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+
+    private long mRecordCount;
+
+    /**
+     * Opens the given log for appending, creating it if needed.
+     *
+     * @param file Log file.
+     * @throws IOException If the file can't be opened, or exists and is not a track log.
+     */
+    public TrackLogWriter(File file) throws IOException {
+
+        this(file, DEFAULT_BUFFERED_RECORDS);
+    }
+
+    /**
+     * Opens the given log for appending, creating it if needed.
+     *
+     * @param file Log file.
+     * @param bufferedRecords Number of records buffered before writing.
+     * @throws IOException If the file can't be opened, or exists and is not a track log with the header and
+     *                     record sizes of this version.
+     */
+    public TrackLogWriter(File file, int bufferedRecords) throws IOException {
+
+        if (bufferedRecords < 1)
+            throw new IllegalArgumentException("bufferedRecords must be positive");
+
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        mBuffer = ByteBuffer.allocateDirect(Math.max(bufferedRecords * TrackLogFormat.RECORD_SIZE, TrackLogFormat.HEADER_SIZE));
+        mBuffer.order(TrackLogFormat.ORDER);
+
+        try {
+
+            open();
+
+        } catch (IOException e) {
+
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private void open() throws IOException {
+
+        long size = mChannel.size();
+
+        if (size == 0) {
+
+            // New log
+            TrackLogFormat.writeHeader(mBuffer);
+            mBuffer.flip();
+
+            while (mBuffer.hasRemaining())
+                mChannel.write(mBuffer);
+
+            mBuffer.clear();
+            return;
+        }
+
+        // Existing log: validate header and record sizes, drop a trailing partial record
+        mBuffer.limit(TrackLogFormat.HEADER_SIZE);
+        mChannel.read(mBuffer, 0);
+        mBuffer.flip();
+
+        int headerSize = TrackLogFormat.readHeader(mBuffer, size);
+        mBuffer.clear();
+
+        mRecordCount = Math.max(0, (size - headerSize) / TrackLogFormat.RECORD_SIZE);
+
+        long end = headerSize + mRecordCount * TrackLogFormat.RECORD_SIZE;
+        mChannel.truncate(end);
+        mChannel.position(end);
+    }
+
+    /**
+     * Appends the given fix.
+     *
+     * @param fix Fix to append. Not retained.
+     * @throws IOException If the buffer had to be written and writing failed.
+     */
+    public void append(Fix fix) throws IOException {
+
+        if (mBuffer.remaining() < TrackLogFormat.RECORD_SIZE)
+            writeBuffer();
+
+        TrackLogFormat.writeRecord(mBuffer, fix);
+        mRecordCount++;
+    }
+
+    /**
+     * @return Number of records in the log, including buffered ones.
+     */
+    public long getRecordCount() { return mRecordCount; }
+
+    /**
+     * Writes buffered records to the file. Does not force them to the storage device, see {@link #sync()}.
+     */
+    @Override
+    public void flush() throws IOException {
+
+        writeBuffer();
+    }
+
+    /**
+     * Writes buffered records and forces them to the storage device.
+     */
+    public void sync() throws IOException {
+
+        writeBuffer();
+        mChannel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+
+            writeBuffer();
+
+        } finally {
+
+            mFile.close();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+
+        mBuffer.flip();
+
+        while (mBuffer.hasRemaining())
+            mChannel.write(mBuffer);
+
+        mBuffer.clear();
+    }
+}
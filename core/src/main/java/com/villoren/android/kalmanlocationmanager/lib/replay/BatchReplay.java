@@ -0,0 +1,353 @@
+/*
+ * BatchReplay
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.replay;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.log.TrackLogReader;
+import com.villoren.android.kalmanlocationmanager.lib.log.TrackLogWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays many track logs in parallel, on a fork-join pool.
+ * <p>
+ * Every input is an independent track log (see {@link TrackLogWriter}). It is replayed through the given
+ * {@link ReplayEngine}, and its estimates (and forwarded readings) are written to a track log of the same name in
+ * the output directory, replacing any existing file. A track that fails does not stop the others; its error is
+ * reported in the {@link Result}.
+ * <p>
+ * Can also be run from the command line:
+ * {@code java -cp core.jar com.villoren.android.kalmanlocationmanager.lib.replay.BatchReplay
+ * minTimeFilter outputDirectory input...}, where an input can be a directory of track logs.
+ */
+public class BatchReplay {
+
+    /**
+     * Extension of the track logs found in input directories from the command line.
+     */
+    public static final String TRACK_LOG_EXTENSION = ".klog";
+
+    private final ReplayEngine mEngine;
+    private final int mParallelism;
+
+    /**
+     * @param engine Engine replaying each track.
+     * @param parallelism Number of tracks replayed at once, usually the number of cores.
+     */
+    public BatchReplay(ReplayEngine engine, int parallelism) {
+
+        if (engine == null)
+            throw new IllegalArgumentException("engine can't be null");
+
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+
+        mEngine = engine;
+        mParallelism = parallelism;
+    }
+
+    /**
+     * Replays the given track logs. Blocks until all of them are done.
+     *
+     * @param inputs Track logs to replay. Names must be unique, as outputs are named after them.
+     * @param outputDirectory Directory of the output track logs. Created if needed.
+     * @return Totals and errors.
+     * @throws IOException If the output directory can't be created.
+     * @throws IllegalArgumentException If two inputs have the same name, or an output would replace an input.
+     */
+    public Result run(List<File> inputs, File outputDirectory) throws IOException {
+
+        Set<String> names = new HashSet<String>();
+        Set<File> files = new HashSet<File>();
+
+        for (File input : inputs) {
+
+            if (!names.add(input.getName()))
+                throw new IllegalArgumentException("Two inputs named " + input.getName());
+
+            files.add(input.getCanonicalFile());
+        }
+
+        // Outputs are replaced before their input is read, so none may be an input
+        for (File input : inputs) {
+
+            File output = new File(outputDirectory, input.getName()).getCanonicalFile();
+
+            if (files.contains(output))
+                throw new IllegalArgumentException("Output of " + input + " would replace input " + output);
+        }
+
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs())
+            throw new IOException("Can't create " + outputDirectory);
+
+        ForkJoinPool pool = new ForkJoinPool(mParallelism);
+        long start = System.nanoTime();
+
+        try {
+
+            Result result = pool.invoke(new ReplayTask(new ArrayList<File>(inputs), 0, inputs.size(), outputDirectory));
+            result.mElapsedNanos = System.nanoTime() - start;
+            return result;
+
+        } finally {
+
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Replays one track log.
+     */
+    private Result replay(File input, File outputDirectory) {
+
+        Result result = new Result();
+        result.mFiles = 1;
+
+        File output = new File(outputDirectory, input.getName());
+
+        try {
+
+            if (output.exists() && !output.delete())
+                throw new IOException("Can't replace " + output);
+
+            TrackLogWriter writer = new TrackLogWriter(output);
+
+            try {
+
+                WriterListener listener = new WriterListener(writer);
+
+                result.mFixes = mEngine.replay(listener, new TrackLogReader(input));
+                result.mEstimates = listener.mEstimates;
+
+                if (listener.mError != null)
+                    throw listener.mError;
+
+            } finally {
+
+                writer.close();
+            }
+
+        } catch (IOException e) {
+
+            result.mErrors.put(input, e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits a range of inputs in halves, down to a single track.
+     */
+    private final class ReplayTask extends RecursiveTask<Result> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> mInputs;
+        private final int mFrom, mTo;
+        private final File mOutputDirectory;
+
+        ReplayTask(List<File> inputs, int from, int to, File outputDirectory) {
+
+            mInputs = inputs;
+            mFrom = from;
+            mTo = to;
+            mOutputDirectory = outputDirectory;
+        }
+
+        @Override
+        protected Result compute() {
+
+            if (mTo - mFrom == 0)
+                return new Result();
+
+            if (mTo - mFrom == 1)
+                return replay(mInputs.get(mFrom), mOutputDirectory);
+
+            int middle = (mFrom + mTo) >>> 1;
+
+            ReplayTask left = new ReplayTask(mInputs, mFrom, middle, mOutputDirectory);
+            ReplayTask right = new ReplayTask(mInputs, middle, mTo, mOutputDirectory);
+
+            left.fork();
+            Result result = right.compute();
+            result.add(left.join());
+
+            return result;
+        }
+    }
+
+    /**
+     * Appends everything to a track log, keeping the first error.
+     */
+    private static final class WriterListener implements ReplayListener {
+
+        private final TrackLogWriter mWriter;
+        private long mEstimates;
+        private IOException mError;
+
+        WriterListener(TrackLogWriter writer) {
+
+            mWriter = writer;
+        }
+
+        @Override
+        public void onEstimate(Fix estimate) {
+
+            mEstimates++;
+            append(estimate);
+        }
+
+        @Override
+        public void onFix(Fix fix) {
+
+            append(fix);
+        }
+
+        private void append(Fix fix) {
+
+            if (mError != null)
+                return;
+
+            try {
+
+                mWriter.append(fix);
+
+            } catch (IOException e) {
+
+                mError = e;
+            }
+        }
+    }
+
+    /**
+     * Totals of a batch.
+     */
+    public static final class Result {
+
+        private long mFiles, mFixes, mEstimates, mElapsedNanos;
+        private final Map<File, IOException> mErrors = new LinkedHashMap<File, IOException>();
+
+        private void add(Result result) {
+
+            mFiles += result.mFiles;
+            mFixes += result.mFixes;
+            mEstimates += result.mEstimates;
+            mErrors.putAll(result.mErrors);
+        }
+
+        /**
+         * @return Number of track logs processed, including failed ones.
+         */
+        public long getFileCount() { return mFiles; }
+
+        /**
+         * @return Number of provider readings replayed.
+         */
+        public long getFixCount() { return mFixes; }
+
+        /**
+         * @return Number of estimates written.
+         */
+        public long getEstimateCount() { return mEstimates; }
+
+        /**
+         * @return Wall time of the batch, in nanoseconds.
+         */
+        public long getElapsedNanos() { return mElapsedNanos; }
+
+        /**
+         * @return Provider readings replayed per second of wall time.
+         */
+        public double getFixesPerSecond() { return mElapsedNanos > 0 ? mFixes * 1e9 / mElapsedNanos : 0.0; }
+
+        /**
+         * @return Track logs that failed, with their error.
+         */
+        public Map<File, IOException> getErrors() { return Collections.unmodifiableMap(mErrors); }
+
+        @Override
+        public String toString() {
+
+            return String.format("%d files, %d fixes, %d estimates in %.3f s (%.0f fixes/s), %d errors",
+                    mFiles, mFixes, mEstimates, mElapsedNanos / 1e9, getFixesPerSecond(), mErrors.size());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 3) {
+
+            System.err.println("Usage: BatchReplay minTimeFilter outputDirectory input...");
+            System.exit(2);
+        }
+
+        List<File> inputs = new ArrayList<File>();
+
+        for (int i = 2; i < args.length; i++) {
+
+            File input = new File(args[i]);
+            File[] files = input.isDirectory() ? input.listFiles() : new File[] { input };
+
+            if (files == null)
+                continue;
+
+            for (File file : files) {
+
+                if (file.isFile() && (!input.isDirectory() || file.getName().endsWith(TRACK_LOG_EXTENSION)))
+                    inputs.add(file);
+            }
+        }
+
+        BatchReplay batch = new BatchReplay(
+                new ReplayEngine(Long.parseLong(args[0]), false), Runtime.getRuntime().availableProcessors());
+
+        Result result = null;
+
+        try {
+
+            result = batch.run(inputs, new File(args[1]));
+
+        } catch (IllegalArgumentException e) {
+
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+
+        System.out.println(result);
+
+        for (Map.Entry<File, IOException> error : result.getErrors().entrySet())
+            System.err.println(error.getKey() + ": " + error.getValue());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * CsvFixSource
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.replay;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the CSV logs written by the example {@code MainActivity} (GPSData.csv, NetData.csv).
+ * <p>
+ * Columns are Latitude, Longitude, Accuracy, Speed and Timestamp, the latter formatted as
+ * {@code HH:mm:ss:SS} (local wall clock, no date). Timestamps are converted to milliseconds since the
+ * start of the recording day; crossing midnight is detected and rolled over to the next day.
+ */
+public class CsvFixSource implements FixSource {
+
+    private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+    private final BufferedReader mReader;
+    private final String mProvider;
+
+    private long mDayOffset;
+    private long mLastTime = -1;
+    private int mLineNumber;
+
+    /**
+     * @param file CSV file to read.
+     * @param provider Provider assigned to each fix, e.g. {@link com.villoren.android.kalmanlocationmanager.lib.LocationFilter#GPS_PROVIDER GPS_PROVIDER}.
+     * @throws IOException If the file can't be opened.
+     */
+    public CsvFixSource(File file, String provider) throws IOException {
+
+        this(new FileReader(file), provider);
+    }
+
+    /**
+     * @param reader Reader over the CSV contents. Closed by {@link #close()}.
+     * @param provider Provider assigned to each fix.
+     */
+    public CsvFixSource(Reader reader, String provider) {
+
+        mReader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        mProvider = provider;
+    }
+
+    @Override
+    public boolean next(Fix fix) throws IOException {
+
+        String line;
+
+        while ((line = mReader.readLine()) != null) {
+
+            mLineNumber++;
+            line = line.trim();
+
+            // Skip header and empty lines
+            if (line.isEmpty() || line.charAt(0) == 'L' || line.startsWith("\"L"))
+                continue;
+
+            String[] columns = line.split(",");
+
+            if (columns.length < 5)
+                throw new IOException("Line " + mLineNumber + ": expected 5 columns, found " + columns.length);
+
+            try {
+
+                fix.reset();
+                fix.setProvider(mProvider);
+                fix.setLatitude(Double.parseDouble(unquote(columns[0])));
+                fix.setLongitude(Double.parseDouble(unquote(columns[1])));
+                fix.setAccuracy(Float.parseFloat(unquote(columns[2])));
+                fix.setSpeed(Float.parseFloat(unquote(columns[3])));
+
+                long time = parseTime(unquote(columns[4]));
+                fix.setTime(time);
+                fix.setElapsedRealtimeNanos(time * 1000000L);
+
+            } catch (NumberFormatException e) {
+
+                throw new IOException("Line " + mLineNumber + ": " + e.getMessage());
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        mReader.close();
+    }
+
+    /**
+     * Parses {@code HH:mm:ss:SS}, where the last field is milliseconds.
+     */
+    private long parseTime(String value) {
+
+        String[] fields = value.split(":");
+
+        if (fields.length != 4)
+            throw new NumberFormatException("Bad timestamp '" + value + "'");
+
+        long time = Long.parseLong(fields[0]) * 3600000L
+                + Long.parseLong(fields[1]) * 60000L
+                + Long.parseLong(fields[2]) * 1000L
+                + Long.parseLong(fields[3])
+                + mDayOffset;
+
+        // Went back more than half a day: recording crossed midnight
+        if (mLastTime >= 0 && time < mLastTime - DAY_MILLIS / 2) {
+
+            mDayOffset += DAY_MILLIS;
+            time += DAY_MILLIS;
+        }
+
+        mLastTime = time;
+        return time;
+    }
+
+    private static String unquote(String value) {
+
+        value = value.trim();
+
+        if (value.length() >= 2 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+            return value.substring(1, value.length() - 1);
+
+        return value;
+    }
+}
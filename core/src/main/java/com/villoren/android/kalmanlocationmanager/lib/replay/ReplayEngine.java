@@ -0,0 +1,201 @@
+/*
+ * ReplayEngine
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.replay;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.LocationFilter;
+
+import java.io.IOException;
+
+/**
+ * Runs the filter over recorded tracks, without Android and as fast as the CPU allows.
+ * <p>
+ * Fixes from all sources are merged in time order and fed to a {@link LocationFilter}, exactly as
+ * {@code FilterSession} does with live readings. The prediction timer is simulated on the recorded elapsed
+ * realtime line: it starts with the first fix and fires every {@code minTimeFilter} milliseconds thereafter.
+ * Wall clock times are only used to stamp estimates, relative to the latest fix. Fixes without an elapsed
+ * realtime (e.g. from CSV files) use their wall clock time instead.
+ * Estimates found in the sources (e.g. in track logs) are skipped.
+ * <p>
+ * An engine only holds settings, so it can replay several tracks at once from different threads.
+ */
+public class ReplayEngine {
+
+    // Settings
+    private final long mMinTimeFilter;
+    private final boolean mForwardProviderReadings;
+    private final boolean mLocalFrame;
+
+    /**
+     * @param minTimeFilter Time interval between location estimates, in milliseconds. Must be positive.
+     * @param forwardProviderReadings Also pass provider readings to {@link ReplayListener#onFix(Fix)}.
+     */
+    public ReplayEngine(long minTimeFilter, boolean forwardProviderReadings) {
+
+        this(minTimeFilter, forwardProviderReadings, false);
+    }
+
+    /**
+     * @param minTimeFilter Time interval between location estimates, in milliseconds. Must be positive.
+     * @param forwardProviderReadings Also pass provider readings to {@link ReplayListener#onFix(Fix)}.
+     * @param localFrame Filter in a local east-north frame (see {@link LocationFilter#LocationFilter(boolean)}).
+     */
+    public ReplayEngine(long minTimeFilter, boolean forwardProviderReadings, boolean localFrame) {
+
+        if (minTimeFilter <= 0)
+            throw new IllegalArgumentException("minTimeFilter must be positive");
+
+        mMinTimeFilter = minTimeFilter;
+        mForwardProviderReadings = forwardProviderReadings;
+        mLocalFrame = localFrame;
+    }
+
+    /**
+     * Replays the given sources through a fresh filter. Sources are closed when done.
+     *
+     * @param listener Receives estimates and (optionally) provider readings.
+     * @param sources Recorded readings, each one in ascending time order.
+     * @return Number of provider readings processed.
+     * @throws IOException If a source can't be read.
+     */
+    public long replay(ReplayListener listener, FixSource... sources) throws IOException {
+
+        if (listener == null)
+            throw new IllegalArgumentException("listener can't be null");
+
+        final LocationFilter filter = new LocationFilter(mLocalFrame);
+        final Fix estimate = new Fix(LocationFilter.KALMAN_PROVIDER);
+        final Fix last = new Fix((String) null);
+        final Fix[] heads = new Fix[sources.length];
+        final boolean[] available = new boolean[sources.length];
+
+        long count = 0;
+        long nextTick = Long.MAX_VALUE;
+        long timeOffset = 0;
+
+        try {
+
+            // Prime one fix per source
+            for (int i = 0; i < sources.length; i++) {
+
+                heads[i] = new Fix((String) null);
+                available[i] = nextReading(sources[i], heads[i]);
+            }
+
+            while (true) {
+
+                // Pick the oldest pending fix
+                int oldest = -1;
+
+                for (int i = 0; i < sources.length; i++) {
+
+                    if (!available[i])
+                        continue;
+
+                    if (oldest < 0
+                            || heads[i].getElapsedRealtimeOrTimeNanos() < heads[oldest].getElapsedRealtimeOrTimeNanos())
+                        oldest = i;
+                }
+
+                if (oldest < 0)
+                    break;
+
+                Fix fix = heads[oldest];
+                long elapsedRealtimeNanos = fix.getElapsedRealtimeOrTimeNanos();
+
+                // Fire all predictions due before this fix
+                while (nextTick <= elapsedRealtimeNanos) {
+
+                    tick(filter, last, estimate, nextTick, timeOffset, listener);
+                    nextTick += mMinTimeFilter * 1000000L;
+                }
+
+                // Correct
+                filter.update(
+                        elapsedRealtimeNanos,
+                        fix.getLatitude(),
+                        fix.getLongitude(),
+                        fix.hasAltitude(),
+                        fix.getAltitude(),
+                        LocationFilter.getMeasurementNoise(fix.getProvider(), fix.getAccuracy()));
+
+                if (mForwardProviderReadings)
+                    listener.onFix(fix);
+
+                if (LocationFilter.isPreferred(fix.getProvider(), last.getProvider()))
+                    last.set(fix);
+
+                // Wall clock time at elapsed realtime 0, to stamp estimates
+                timeOffset = fix.getTime() - elapsedRealtimeNanos / 1000000L;
+
+                // Enable filter timer if this is our first measurement
+                if (nextTick == Long.MAX_VALUE)
+                    nextTick = elapsedRealtimeNanos + mMinTimeFilter * 1000000L;
+
+                count++;
+                available[oldest] = nextReading(sources[oldest], fix);
+            }
+
+        } finally {
+
+            for (FixSource source : sources)
+                source.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Reads the next provider reading, skipping estimates.
+     */
+    private static boolean nextReading(FixSource source, Fix fix) throws IOException {
+
+        while (source.next(fix)) {
+
+            String provider = fix.getProvider();
+
+            if (!LocationFilter.KALMAN_PROVIDER.equals(provider) && !LocationFilter.SMOOTHED_PROVIDER.equals(provider))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Prediction at the given elapsed realtime, stamped with the wall clock time of the given offset.
+     */
+    private static void tick(
+            LocationFilter filter, Fix last, Fix estimate, long elapsedRealtimeNanos, long timeOffset,
+            ReplayListener listener) {
+
+        filter.predict(elapsedRealtimeNanos, last.hasAltitude());
+        filter.getEstimate(estimate, last);
+
+        estimate.setTime(timeOffset + elapsedRealtimeNanos / 1000000L);
+        estimate.setElapsedRealtimeNanos(elapsedRealtimeNanos);
+
+        listener.onEstimate(estimate);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * ReplayListener
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.replay;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+
+/**
+ * Receives the output of a {@link ReplayEngine}.
+ * <p>
+ * The given fixes are reused by the engine; copy them if they must be kept after the call returns.
+ */
+public interface ReplayListener {
+
+    /**
+     * Called for each prediction, as {@code LocationListener.onLocationChanged} would be on the device.
+     *
+     * @param estimate Filter estimate, with {@link com.villoren.android.kalmanlocationmanager.lib.LocationFilter#KALMAN_PROVIDER KALMAN_PROVIDER}.
+     */
+    void onEstimate(Fix estimate);
+
+    /**
+     * Called for each provider reading fed to the filter, after the correction step.
+     *
+     * @param fix Provider reading.
+     */
+    void onFix(Fix fix);
+}
@@ -0,0 +1,362 @@
+/*
+ * SyntheticTrack
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.sim;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.LocationFilter;
+import com.villoren.android.kalmanlocationmanager.lib.replay.FixSource;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Synthetic trajectory, read as GPS and Network readings.
+ * <p>
+ * The trajectory is a sequence of segments (straight lines, turns, stops, GPS dropouts) added with the
+ * builder-style methods. Readings are generated at the configured intervals, with Gaussian noise matching their
+ * accuracy; Network readings can also jump away from the trajectory. The same seed gives the same readings.
+ * Elapsed realtime starts at 0 with the trajectory.
+ * <p>
+ * The true position at the time of the last reading is available, to measure filter errors.
+ */
+public class SyntheticTrack implements FixSource {
+
+    public static final long DEFAULT_GPS_INTERVAL = 1000;
+    public static final long DEFAULT_NETWORK_INTERVAL = 10000;
+    public static final double DEFAULT_GPS_ACCURACY = 5.0;
+    public static final double DEFAULT_NETWORK_ACCURACY = 40.0;
+
+    /**
+     * Integration step of the trajectory.
+     */
+    private static final long STEP_NANOS = 100000000L;
+
+    /**
+     * Reported accuracy (68% radius) to standard deviation per axis.
+     */
+    private static final double ACCURACY_TO_SIGMA = 1.0 / 1.515;
+
+    private static final class Segment {
+
+        final long mDuration;
+        final double mSpeed;
+        final double mTurnRate;
+        final boolean mGps;
+
+        Segment(long duration, double speed, double turnRate, boolean gps) {
+
+            mDuration = duration;
+            mSpeed = speed;
+            mTurnRate = turnRate;
+            mGps = gps;
+        }
+    }
+
+    private final Random mRandom;
+    private final ArrayList<Segment> mSegments = new ArrayList<Segment>();
+
+    // Settings
+    private long mStartTime = 0;
+    private long mGpsInterval = DEFAULT_GPS_INTERVAL * 1000000L;
+    private long mNetworkInterval = DEFAULT_NETWORK_INTERVAL * 1000000L;
+    private double mGpsAccuracy = DEFAULT_GPS_ACCURACY;
+    private double mNetworkAccuracy = DEFAULT_NETWORK_ACCURACY;
+    private double mJumpProbability;
+    private double mJumpDistance;
+
+    // Trajectory
+    private long mTime;
+    private double mLatitude, mLongitude, mBearing, mSpeed;
+    private int mSegment;
+    private long mSegmentStart;
+    private long mDuration;
+
+    // Next readings (elapsed nanos)
+    private long mNextGps, mNextNetwork;
+
+    /**
+     * @param seed Seed of the noise.
+     * @param latitude Start latitude, in degrees.
+     * @param longitude Start longitude, in degrees.
+     * @param bearing Start bearing, in degrees clockwise from north.
+     */
+    public SyntheticTrack(long seed, double latitude, double longitude, double bearing) {
+
+        mRandom = new Random(seed);
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mBearing = bearing;
+    }
+
+    /**
+     * Sets the wall clock time of the start of the trajectory.
+     *
+     * @param startTime Milliseconds since the epoch.
+     * @return This instance.
+     */
+    public SyntheticTrack startTime(long startTime) {
+
+        mStartTime = startTime;
+        return this;
+    }
+
+    /**
+     * @param interval Time between GPS readings, in milliseconds. 0 for no GPS readings.
+     * @param accuracy Accuracy of GPS readings, in meters.
+     * @return This instance.
+     */
+    public SyntheticTrack gps(long interval, double accuracy) {
+
+        if (interval < 0 || !(accuracy > 0.0))
+            throw new IllegalArgumentException("interval can't be negative and accuracy must be positive");
+
+        mGpsInterval = interval * 1000000L;
+        mGpsAccuracy = accuracy;
+        return this;
+    }
+
+    /**
+     * @param interval Time between Network readings, in milliseconds. 0 for no Network readings.
+     * @param accuracy Accuracy of Network readings, in meters.
+     * @return This instance.
+     */
+    public SyntheticTrack network(long interval, double accuracy) {
+
+        if (interval < 0 || !(accuracy > 0.0))
+            throw new IllegalArgumentException("interval can't be negative and accuracy must be positive");
+
+        mNetworkInterval = interval * 1000000L;
+        mNetworkAccuracy = accuracy;
+        return this;
+    }
+
+    /**
+     * Makes Network readings jump away from the trajectory now and then, keeping their reported accuracy.
+     *
+     * @param probability Probability of a reading to jump, from 0 to 1.
+     * @param distance Distance of the jumps, in meters.
+     * @return This instance.
+     */
+    public SyntheticTrack networkJumps(double probability, double distance) {
+
+        if (probability < 0.0 || probability > 1.0)
+            throw new IllegalArgumentException("probability must be between 0 and 1");
+
+        mJumpProbability = probability;
+        mJumpDistance = distance;
+        return this;
+    }
+
+    /**
+     * Adds a straight segment.
+     *
+     * @param duration Duration, in milliseconds.
+     * @param speed Speed, in meters per second.
+     * @return This instance.
+     */
+    public SyntheticTrack straight(long duration, double speed) {
+
+        return add(duration, speed, 0.0, true);
+    }
+
+    /**
+     * Adds a turn at constant speed.
+     *
+     * @param duration Duration, in milliseconds.
+     * @param speed Speed, in meters per second.
+     * @param turnRate Bearing change, in degrees per second (positive turns right).
+     * @return This instance.
+     */
+    public SyntheticTrack turn(long duration, double speed, double turnRate) {
+
+        return add(duration, speed, turnRate, true);
+    }
+
+    /**
+     * Adds a stop.
+     *
+     * @param duration Duration, in milliseconds.
+     * @return This instance.
+     */
+    public SyntheticTrack stop(long duration) {
+
+        return add(duration, 0.0, 0.0, true);
+    }
+
+    /**
+     * Continues the motion of the previous segment (or stays still) without GPS readings.
+     *
+     * @param duration Duration, in milliseconds.
+     * @return This instance.
+     */
+    public SyntheticTrack gpsDropout(long duration) {
+
+        Segment previous = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+
+        return add(duration, previous == null ? 0.0 : previous.mSpeed, previous == null ? 0.0 : previous.mTurnRate, false);
+    }
+
+    private SyntheticTrack add(long duration, double speed, double turnRate, boolean gps) {
+
+        if (duration <= 0)
+            throw new IllegalArgumentException("duration must be positive");
+
+        if (speed < 0.0)
+            throw new IllegalArgumentException("speed can't be negative");
+
+        mSegments.add(new Segment(duration * 1000000L, speed, turnRate, gps));
+        mDuration += duration * 1000000L;
+        return this;
+    }
+
+    /**
+     * @return Duration of the trajectory, in nanoseconds.
+     */
+    public long getDuration() { return mDuration; }
+
+    /**
+     * @return True latitude at the time of the last reading, in degrees.
+     */
+    public double getTrueLatitude() { return mLatitude; }
+
+    /**
+     * @return True longitude at the time of the last reading, in degrees.
+     */
+    public double getTrueLongitude() { return mLongitude; }
+
+    /**
+     * @return True speed at the time of the last reading, in meters per second.
+     */
+    public double getTrueSpeed() { return mSpeed; }
+
+    @Override
+    public boolean next(Fix fix) {
+
+        if (mSegments.isEmpty())
+            return false;
+
+        while (true) {
+
+            boolean gps = mGpsInterval > 0 && (mNetworkInterval == 0 || mNextGps <= mNextNetwork);
+
+            if (!gps && mNetworkInterval == 0)
+                return false;
+
+            long time = gps ? mNextGps : mNextNetwork;
+
+            if (time > mDuration)
+                return false;
+
+            advance(time);
+
+            if (gps) {
+
+                mNextGps += mGpsInterval;
+
+                if (mSegments.get(mSegment).mGps) {
+
+                    reading(fix, LocationFilter.GPS_PROVIDER, mGpsAccuracy, 0.0);
+                    fix.setSpeed((float) mSpeed);
+                    fix.setBearing((float) mBearing);
+                    return true;
+                }
+
+            } else {
+
+                mNextNetwork += mNetworkInterval;
+
+                double jump = mRandom.nextDouble() < mJumpProbability ? mJumpDistance : 0.0;
+                reading(fix, LocationFilter.NETWORK_PROVIDER, mNetworkAccuracy, jump);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() { }
+
+    /**
+     * Fills the fix with a noisy reading of the current position.
+     */
+    private void reading(Fix fix, String provider, double accuracy, double jump) {
+
+        double sigma = accuracy * ACCURACY_TO_SIGMA;
+        double north = mRandom.nextGaussian() * sigma;
+        double east = mRandom.nextGaussian() * sigma;
+
+        if (jump > 0.0) {
+
+            double direction = mRandom.nextDouble() * 2.0 * Math.PI;
+            north += jump * Math.cos(direction);
+            east += jump * Math.sin(direction);
+        }
+
+        fix.reset();
+        fix.setProvider(provider);
+        fix.setTime(mStartTime + mTime / 1000000L);
+        fix.setElapsedRealtimeNanos(mTime);
+        fix.setLatitude(mLatitude + north * LocationFilter.METER_TO_DEG);
+        fix.setLongitude(mLongitude + east * LocationFilter.METER_TO_DEG / Math.cos(Math.toRadians(mLatitude)));
+        fix.setAccuracy((float) accuracy);
+    }
+
+    /**
+     * Moves along the trajectory up to the given time.
+     */
+    private void advance(long time) {
+
+        while (mTime < time) {
+
+            Segment segment = mSegments.get(mSegment);
+            long segmentEnd = mSegmentStart + segment.mDuration;
+            long end = Math.min(Math.min(time, segmentEnd), mTime + STEP_NANOS);
+            double dt = (end - mTime) / 1e9;
+
+            // Midpoint integration
+            mSpeed = segment.mSpeed;
+            mBearing += segment.mTurnRate * dt / 2.0;
+
+            double distance = mSpeed * dt;
+            double bearing = Math.toRadians(mBearing);
+
+            mLatitude += distance * Math.cos(bearing) * LocationFilter.METER_TO_DEG;
+            mLongitude += distance * Math.sin(bearing) * LocationFilter.METER_TO_DEG / Math.cos(Math.toRadians(mLatitude));
+
+            mBearing += segment.mTurnRate * dt / 2.0;
+            mBearing = ((mBearing % 360.0) + 360.0) % 360.0;
+
+            mTime = end;
+
+            if (end == segmentEnd && mSegment < mSegments.size() - 1) {
+
+                mSegment++;
+                mSegmentStart = segmentEnd;
+            }
+        }
+
+        if (!mSegments.isEmpty())
+            mSpeed = mSegments.get(mSegment).mSpeed;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * VirtualClock
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.sim;
+
+import com.villoren.android.kalmanlocationmanager.lib.Clock;
+
+/**
+ * A {@link Clock} on a simulated time line, starting at elapsed time 0 when created. It runs at a multiple of
+ * real time, or not at all, and can be moved forward at will. Thread safe.
+ */
+public class VirtualClock implements Clock {
+
+    private final long mEpochMillis;
+    private final double mSpeedFactor;
+    private final long mStartNanos;
+    private long mOffsetNanos;
+
+    /**
+     * A clock that only moves when told to.
+     *
+     * @param epochMillis Wall clock time at elapsed time 0, in milliseconds since the epoch.
+     */
+    public VirtualClock(long epochMillis) {
+
+        this(epochMillis, 0.0);
+    }
+
+    /**
+     * @param epochMillis Wall clock time at elapsed time 0, in milliseconds since the epoch.
+     * @param speedFactor Simulated time per real time, e.g. 100 to run 100 times faster than real time.
+     *                    0 for a clock that only moves when told to.
+     */
+    public VirtualClock(long epochMillis, double speedFactor) {
+
+        if (!(speedFactor >= 0.0))
+            throw new IllegalArgumentException("speedFactor can't be negative");
+
+        mEpochMillis = epochMillis;
+        mSpeedFactor = speedFactor;
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Moves the clock forward.
+     *
+     * @param nanos Time to move, in nanoseconds. Must not be negative.
+     */
+    public synchronized void advance(long nanos) {
+
+        if (nanos < 0)
+            throw new IllegalArgumentException("nanos can't be negative");
+
+        mOffsetNanos += nanos;
+    }
+
+    /**
+     * Moves the clock forward to the given elapsed time, if it is not past it already.
+     */
+    public synchronized void advanceTo(long elapsedRealtimeNanos) {
+
+        long now = elapsedRealtimeNanos();
+
+        if (elapsedRealtimeNanos > now)
+            mOffsetNanos += elapsedRealtimeNanos - now;
+    }
+
+    @Override
+    public synchronized long elapsedRealtimeNanos() {
+
+        return (long) ((System.nanoTime() - mStartNanos) * mSpeedFactor) + mOffsetNanos;
+    }
+
+    @Override
+    public long currentTimeMillis() { return mEpochMillis + elapsedRealtimeNanos() / 1000000L; }
+
+    @Override
+    public double getSpeedFactor() { return mSpeedFactor; }
+}
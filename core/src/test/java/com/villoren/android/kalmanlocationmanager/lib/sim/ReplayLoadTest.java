@@ -0,0 +1,260 @@
+/*
+ * ReplayLoadTest
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.lib.sim;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.LatencyHistogram;
+import com.villoren.android.kalmanlocationmanager.lib.replay.FixSource;
+import com.villoren.android.kalmanlocationmanager.lib.replay.ReplayEngine;
+import com.villoren.android.kalmanlocationmanager.lib.replay.ReplayListener;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives many simulated devices through the replay engine and the core filter at a multiple of real time, on a
+ * plain JVM. The manager itself is covered by {@code KalmanLocationManagerLoadTest} in the app module.
+ * <p>
+ * Each device replays its own {@link SyntheticTrack} through a {@link ReplayEngine}, in its own thread. Readings
+ * are released when the wall clock reaches their time divided by the speed factor, so all devices share one
+ * accelerated time line, as they would on a server. The latency of a reading is the wall time from its release
+ * to the end of its correction step; it grows when the CPU can't keep up.
+ */
+public class ReplayLoadTest {
+
+    private static final int DEVICES = 50;
+    private static final double SPEED_FACTOR = 60.0;
+    private static final long MIN_TIME_FILTER = 1000;
+
+    /**
+     * Bounds checked by the test: 99th percentile of the reading latency, and slack of the whole run over the
+     * accelerated duration of the tracks.
+     */
+    private static final long MAX_LATENCY_NANOS = 50000000L;
+    private static final double MAX_SLOWDOWN = 1.5;
+
+    @Test
+    public void keepsUpWithManyDevices() throws IOException, InterruptedException {
+
+        long expectedFixes = 0;
+
+        for (int device = 0; device < DEVICES; device++) {
+
+            FixSource track = createTrack(device);
+
+            for (Fix fix = new Fix((String) null); track.next(fix); )
+                expectedFixes++;
+        }
+
+        long duration = createTrack(0).getDuration();
+        long expectedEstimates = DEVICES * (duration / 1000000L / MIN_TIME_FILTER);
+
+        Result result = run(new ReplayEngine(MIN_TIME_FILTER, true));
+
+        System.out.println(result);
+
+        // Throughput: every reading filtered, about one estimate per interval, in about the accelerated time
+        assertEquals(expectedFixes, result.getFixCount());
+        assertTrue("Estimates: " + result.getEstimateCount(),
+                Math.abs(result.getEstimateCount() - expectedEstimates) <= expectedEstimates / 10);
+        assertTrue("Elapsed: " + result.getElapsedNanos(),
+                result.getElapsedNanos() <= duration / SPEED_FACTOR * MAX_SLOWDOWN);
+
+        // Latency
+        assertTrue("Latency: " + result.getLatency(),
+                result.getLatency().getValueAtPercentile(99.0) <= MAX_LATENCY_NANOS);
+    }
+
+    /**
+     * @return Track of the given device: a few minutes of driving with GPS and Network readings.
+     */
+    private static SyntheticTrack createTrack(int device) {
+
+        return new SyntheticTrack(device, 48.0 + device * 0.01, 2.0, device * 7.0)
+                .straight(60000, 15.0)
+                .turn(30000, 10.0, 3.0)
+                .stop(30000)
+                .straight(60000, 20.0);
+    }
+
+    /**
+     * Runs all devices to the end of their tracks, each one in its own thread.
+     */
+    private static Result run(final ReplayEngine engine) throws IOException, InterruptedException {
+
+        final Result result = new Result();
+        final AtomicReference<IOException> error = new AtomicReference<IOException>();
+        final long start = System.nanoTime();
+
+        Thread[] threads = new Thread[DEVICES];
+
+        for (int i = 0; i < DEVICES; i++) {
+
+            final int device = i;
+
+            threads[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+
+                        engine.replay(result.listener(start), new PacedSource(createTrack(device), start));
+
+                    } catch (IOException e) {
+
+                        error.compareAndSet(null, e);
+                    }
+                }
+            }, "ReplayLoadTest-" + device);
+
+            threads[i].start();
+        }
+
+        try {
+
+            for (Thread thread : threads)
+                thread.join();
+
+        } catch (InterruptedException e) {
+
+            // Stop the devices too
+            for (Thread thread : threads)
+                thread.interrupt();
+
+            throw e;
+        }
+
+        result.mElapsedNanos = System.nanoTime() - start;
+
+        if (error.get() != null)
+            throw error.get();
+
+        return result;
+    }
+
+    /**
+     * Wall time, in System.nanoTime, at which a reading is released.
+     */
+    private static long releaseTime(long start, long elapsedRealtimeNanos) {
+
+        return start + (long) (elapsedRealtimeNanos / SPEED_FACTOR);
+    }
+
+    /**
+     * Releases readings at their accelerated time.
+     */
+    private static final class PacedSource implements FixSource {
+
+        private final FixSource mSource;
+        private final long mStart;
+
+        PacedSource(FixSource source, long start) {
+
+            mSource = source;
+            mStart = start;
+        }
+
+        @Override
+        public boolean next(Fix fix) throws IOException {
+
+            if (!mSource.next(fix))
+                return false;
+
+            long wait = releaseTime(mStart, fix.getElapsedRealtimeNanos()) - System.nanoTime();
+
+            try {
+
+                if (wait > 0)
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+
+            } catch (InterruptedException e) {
+
+                throw new InterruptedIOException();
+            }
+
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            mSource.close();
+        }
+    }
+
+    /**
+     * Totals of a run. Thread safe.
+     */
+    private static final class Result {
+
+        private final AtomicLong mFixes = new AtomicLong();
+        private final AtomicLong mEstimates = new AtomicLong();
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+        private volatile long mElapsedNanos;
+
+        private ReplayListener listener(final long start) {
+
+            return new ReplayListener() {
+
+                @Override
+                public void onEstimate(Fix estimate) {
+
+                    mEstimates.incrementAndGet();
+                }
+
+                @Override
+                public void onFix(Fix fix) {
+
+                    mFixes.incrementAndGet();
+                    mLatency.record(System.nanoTime() - releaseTime(start, fix.getElapsedRealtimeNanos()));
+                }
+            };
+        }
+
+        long getFixCount() { return mFixes.get(); }
+
+        long getEstimateCount() { return mEstimates.get(); }
+
+        LatencyHistogram getLatency() { return mLatency; }
+
+        long getElapsedNanos() { return mElapsedNanos; }
+
+        @Override
+        public String toString() {
+
+            return String.format("%d fixes, %d estimates in %.3f s (%.0f fixes/s), latency {%s}",
+                    getFixCount(), getEstimateCount(), mElapsedNanos / 1e9,
+                    mElapsedNanos > 0 ? mFixes.get() * 1e9 / mElapsedNanos : 0.0, mLatency);
+        }
+    }
+}
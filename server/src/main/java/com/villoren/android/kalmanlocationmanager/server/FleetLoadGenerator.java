@@ -0,0 +1,319 @@
+/*
+ * FleetLoadGenerator
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for {@link FleetServer}: simulated devices driving around, sending fixes over a number of
+ * connections at a fixed total rate, plus one subscriber counting estimates.
+ * <p>
+ * Each connection runs on its own thread with a blocking channel, and sends its devices' fixes in batches.
+ * <p>
+ * Can also be run from the command line: {@code java -cp core.jar:server.jar
+ * com.villoren.android.kalmanlocationmanager.server.FleetLoadGenerator host port connections devices fixesPerSecond
+ * seconds}.
+ */
+public class FleetLoadGenerator {
+
+    /**
+     * Fixes per write.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private static final int ESTIMATE_SIZE = FleetProtocol.HEADER_SIZE + FleetProtocol.FIX_LENGTH;
+
+    // Devices drive around this point
+    private static final double LATITUDE = 52.52;
+    private static final double LONGITUDE = 13.40;
+    private static final double METERS_PER_DEGREE = 111225.0;
+
+    private final InetSocketAddress mAddress;
+    private final int mConnections;
+    private final int mDevices;
+    private final double mFixesPerSecond;
+
+    private final AtomicLong mSentFixes = new AtomicLong();
+    private final AtomicLong mReceivedEstimates = new AtomicLong();
+
+    /**
+     * @param address Server address.
+     * @param connections Number of sending connections.
+     * @param devices Number of devices, spread over the connections.
+     * @param fixesPerSecond Total send rate.
+     */
+    public FleetLoadGenerator(InetSocketAddress address, int connections, int devices, double fixesPerSecond) {
+
+        if (connections <= 0 || devices < connections)
+            throw new IllegalArgumentException("connections must be positive, and not more than devices");
+
+        if (fixesPerSecond <= 0.0)
+            throw new IllegalArgumentException("fixesPerSecond must be positive");
+
+        mAddress = address;
+        mConnections = connections;
+        mDevices = devices;
+        mFixesPerSecond = fixesPerSecond;
+    }
+
+    /**
+     * Sends fixes for the given time, then closes all connections. Blocks until done.
+     *
+     * @param millis Duration of the run.
+     * @throws IOException If a connection fails.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void run(long millis) throws IOException, InterruptedException {
+
+        final long end = System.nanoTime() + millis * 1000000L;
+        final IOException[] error = new IOException[1];
+
+        Thread[] senders = new Thread[mConnections];
+
+        for (int i = 0; i < mConnections; i++) {
+
+            final int first = (int) ((long) mDevices * i / mConnections);
+            final int last = (int) ((long) mDevices * (i + 1) / mConnections);
+
+            senders[i] = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+
+                        send(first, last, end);
+
+                    } catch (IOException e) {
+
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            }, "sender-" + i);
+
+            senders[i].start();
+        }
+
+        SocketChannel subscriber = SocketChannel.open(mAddress);
+        Thread receiver = new Thread(new Receiver(subscriber), "receiver");
+        receiver.start();
+
+        try {
+
+            for (Thread sender : senders)
+                sender.join();
+
+        } catch (InterruptedException e) {
+
+            for (Thread sender : senders)
+                sender.interrupt();
+
+            throw e;
+
+        } finally {
+
+            subscriber.close();
+            receiver.join();
+        }
+
+        synchronized (error) {
+
+            if (error[0] != null)
+                throw error[0];
+        }
+    }
+
+    /**
+     * Sends fixes of devices {@code [first, last)} until the given time.
+     */
+    private void send(int first, int last, long end) throws IOException {
+
+        int count = last - first;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double[] bearings = new double[count];
+        Random random = new Random(first);
+
+        for (int i = 0; i < count; i++) {
+
+            latitudes[i] = LATITUDE + (random.nextDouble() - 0.5) * 0.1;
+            longitudes[i] = LONGITUDE + (random.nextDouble() - 0.5) * 0.1;
+            bearings[i] = random.nextDouble() * 2.0 * Math.PI;
+        }
+
+        // This connection's share of the rate
+        double nanosPerFix = 1e9 * mConnections / mFixesPerSecond;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(
+                BATCH_SIZE * (FleetProtocol.HEADER_SIZE + FleetProtocol.FIX_LENGTH));
+
+        SocketChannel channel = SocketChannel.open(mAddress);
+
+        try {
+
+            channel.socket().setTcpNoDelay(true);
+
+            long start = System.nanoTime();
+            long sent = 0;
+            int device = 0;
+
+            while (System.nanoTime() - end < 0) {
+
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
+
+                // Pace to the rate
+                long due = start + (long) (sent * nanosPerFix);
+                long wait = due - System.nanoTime();
+
+                if (wait > 1000000L) {
+
+                    try {
+                        Thread.sleep(wait / 1000000L);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+
+                buffer.clear();
+
+                for (int i = 0; i < BATCH_SIZE; i++) {
+
+                    // About 10 m per fix, turning slowly, with 5 m of noise
+                    bearings[device] += random.nextGaussian() * 0.1;
+                    latitudes[device] += Math.cos(bearings[device]) * 10.0 / METERS_PER_DEGREE;
+                    longitudes[device] += Math.sin(bearings[device]) * 10.0 / METERS_PER_DEGREE
+                            / Math.cos(Math.toRadians(latitudes[device]));
+
+                    FleetProtocol.putFix(
+                            buffer, FleetProtocol.TYPE_FIX, first + device, System.currentTimeMillis(),
+                            latitudes[device] + random.nextGaussian() * 5.0 / METERS_PER_DEGREE,
+                            longitudes[device] + random.nextGaussian() * 5.0 / METERS_PER_DEGREE,
+                            Double.NaN, 5.0f);
+
+                    device = (device + 1) % count;
+                }
+
+                buffer.flip();
+
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+
+                sent += BATCH_SIZE;
+                mSentFixes.addAndGet(BATCH_SIZE);
+            }
+
+        } finally {
+
+            channel.close();
+        }
+    }
+
+    /**
+     * Subscribes and counts estimates until the channel is closed.
+     */
+    private class Receiver implements Runnable {
+
+        private final SocketChannel mChannel;
+
+        Receiver(SocketChannel channel) {
+
+            mChannel = channel;
+        }
+
+        @Override
+        public void run() {
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+            try {
+
+                FleetProtocol.putSubscribe(buffer);
+                buffer.flip();
+
+                while (buffer.hasRemaining())
+                    mChannel.write(buffer);
+
+                buffer.clear();
+
+                while (mChannel.read(buffer) >= 0) {
+
+                    // Estimates are fixed size
+                    int estimates = buffer.position() / ESTIMATE_SIZE;
+
+                    mReceivedEstimates.addAndGet(estimates);
+                    buffer.flip();
+                    buffer.position(estimates * ESTIMATE_SIZE);
+                    buffer.compact();
+                }
+
+            } catch (IOException ignored) {
+                // Closed at the end of the run
+            }
+        }
+    }
+
+    /**
+     * @return Fixes sent so far.
+     */
+    public long getSentFixCount() { return mSentFixes.get(); }
+
+    /**
+     * @return Estimates received so far.
+     */
+    public long getReceivedEstimateCount() { return mReceivedEstimates.get(); }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length < 6) {
+
+            System.err.println("Usage: FleetLoadGenerator host port connections devices fixesPerSecond seconds");
+            System.exit(2);
+        }
+
+        FleetLoadGenerator generator = new FleetLoadGenerator(
+                new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), Double.parseDouble(args[4]));
+
+        long millis = Long.parseLong(args[5]) * 1000L;
+        long start = System.nanoTime();
+
+        generator.run(millis);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(String.format(
+                "%d fixes sent in %.1f s, %.0f fixes/s, %d estimates received",
+                generator.getSentFixCount(), seconds, generator.getSentFixCount() / seconds,
+                generator.getReceivedEstimateCount()));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * FleetProtocol
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.server;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.LocationFilter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Wire format of {@link FleetServer}.
+ * <p>
+ * Every message is a big-endian {@code int} length, counting the bytes after it, followed by a type byte and
+ * the payload:
+ * <ul>
+ * <li>{@link #TYPE_FIX}, client to server: {@code long} device id, {@code long} time (millis since the epoch),
+ * {@code double} latitude, {@code double} longitude (degrees), {@code double} altitude (meters, NaN if not
+ * available), {@code float} accuracy (meters).</li>
+ * <li>{@link #TYPE_SUBSCRIBE}, client to server, no payload: the connection receives all estimates from then on.</li>
+ * <li>{@link #TYPE_ESTIMATE}, server to subscribers: same payload as a fix, with the filter estimate and the time it
+ * was predicted to, on the time line of the device fixes.</li>
+ * </ul>
+ */
+public final class FleetProtocol {
+
+    public static final byte TYPE_FIX = 1;
+    public static final byte TYPE_SUBSCRIBE = 2;
+    public static final byte TYPE_ESTIMATE = 3;
+
+    /**
+     * Size of the length prefix.
+     */
+    public static final int HEADER_SIZE = 4;
+
+    /**
+     * Length of fix and estimate messages, not counting the prefix.
+     */
+    public static final int FIX_LENGTH = 1 + 8 + 8 + 8 + 8 + 8 + 4;
+
+    /**
+     * Length of subscribe messages, not counting the prefix.
+     */
+    public static final int SUBSCRIBE_LENGTH = 1;
+
+    /**
+     * Longest message accepted. Anything longer is a protocol error.
+     */
+    public static final int MAX_LENGTH = 1024;
+
+    private FleetProtocol() {}
+
+    /**
+     * Writes a fix or estimate message. The buffer must have {@link #HEADER_SIZE} + {@link #FIX_LENGTH} bytes left.
+     *
+     * @param type {@link #TYPE_FIX} or {@link #TYPE_ESTIMATE}.
+     */
+    public static void putFix(ByteBuffer buffer, byte type, long deviceId, Fix fix) {
+
+        putFix(buffer, type, deviceId, fix.getTime(), fix.getLatitude(), fix.getLongitude(),
+                fix.hasAltitude() ? fix.getAltitude() : Double.NaN, fix.getAccuracy());
+    }
+
+    /**
+     * Same as {@link #putFix(ByteBuffer, byte, long, Fix)}, from plain values.
+     *
+     * @param altitude Altitude, NaN if not available.
+     */
+    public static void putFix(
+            ByteBuffer buffer,
+            byte type,
+            long deviceId,
+            long time,
+            double latitude,
+            double longitude,
+            double altitude,
+            float accuracy)
+    {
+        buffer.putInt(FIX_LENGTH);
+        buffer.put(type);
+        buffer.putLong(deviceId);
+        buffer.putLong(time);
+        buffer.putDouble(latitude);
+        buffer.putDouble(longitude);
+        buffer.putDouble(altitude);
+        buffer.putFloat(accuracy);
+    }
+
+    /**
+     * Writes a subscribe message.
+     */
+    public static void putSubscribe(ByteBuffer buffer) {
+
+        buffer.putInt(SUBSCRIBE_LENGTH);
+        buffer.put(TYPE_SUBSCRIBE);
+    }
+
+    /**
+     * Reads the payload of a fix or estimate message, from just after the type byte.
+     *
+     * @param provider Provider set to the fix.
+     * @return Device id.
+     */
+    public static long getFix(ByteBuffer buffer, Fix fix, String provider) {
+
+        long deviceId = buffer.getLong();
+
+        fix.reset();
+        fix.setProvider(provider);
+        fix.setTime(buffer.getLong());
+        fix.setLatitude(buffer.getDouble());
+        fix.setLongitude(buffer.getDouble());
+
+        double altitude = buffer.getDouble();
+
+        if (altitude == altitude)
+            fix.setAltitude(altitude);
+
+        fix.setAccuracy(buffer.getFloat());
+
+        return deviceId;
+    }
+
+    /**
+     * Same as {@link #getFix(ByteBuffer, Fix, String)}, for estimates.
+     */
+    public static long getEstimate(ByteBuffer buffer, Fix fix) {
+
+        return getFix(buffer, fix, LocationFilter.KALMAN_PROVIDER);
+    }
+}
@@ -0,0 +1,569 @@
+/*
+ * FleetServer
+ *
+ * Copyright (c) 2014 Renato Villone
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.villoren.android.kalmanlocationmanager.server;
+
+import com.villoren.android.kalmanlocationmanager.lib.Fix;
+import com.villoren.android.kalmanlocationmanager.lib.FleetFilter;
+import com.villoren.android.kalmanlocationmanager.lib.LocationFilter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filters position streams of many devices (e.g. vehicles) on a server.
+ * <p>
+ * Accepts TCP connections on a single non-blocking selector thread. Clients send fixes (see {@link FleetProtocol});
+ * each device gets a track of a {@link FleetFilter}, the first time one of its fixes arrives, filtered on the time
+ * line of the fixes: each fix first predicts its track over the time elapsed since the previous one. Every
+ * {@link #TICK_MILLIS}, the estimate of every device heard from in the last {@link #IDLE_TICKS} ticks is
+ * extrapolated to the server time and published to the subscribed connections, stamped with that time.
+ * Publication never changes the filter state, so fixes arriving late are still applied at the time they were taken.
+ * Device clocks are assumed to be in sync with the server (e.g. GPS time); a track ahead of the server is
+ * published as it is.
+ * <p>
+ * A subscriber that doesn't keep up loses estimates, instead of slowing the others down: estimates that don't fit
+ * in its output buffer are dropped and counted. A connection sending a malformed message is closed.
+ * <p>
+ * Can also be run from the command line: {@code java -cp core.jar:server.jar
+ * com.villoren.android.kalmanlocationmanager.server.FleetServer port [capacity]}. It prints its counters every
+ * {@link #REPORT_MILLIS}.
+ */
+public class FleetServer implements Runnable, Closeable {
+
+    /**
+     * Publication interval.
+     */
+    public static final long TICK_MILLIS = 1000;
+
+    /**
+     * Ticks without fixes after which a device is no longer published.
+     */
+    public static final int IDLE_TICKS = 10;
+
+    /**
+     * Counter report interval of the command line server.
+     */
+    public static final long REPORT_MILLIS = 5000;
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int OUTPUT_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int ESTIMATE_SIZE = FleetProtocol.HEADER_SIZE + FleetProtocol.FIX_LENGTH;
+
+    private final Selector mSelector;
+    private final ServerSocketChannel mServerChannel;
+
+    /**
+     * Filter state of all devices, and the device id and tick of the last fix of each track.
+     */
+    private final FleetFilter mFilter;
+    private final long[] mDeviceIds;
+    private final long[] mFixTicks;
+    private final Map<Long, Integer> mDevice2Track;
+    private int mTrackCount;
+
+    /**
+     * Estimate being published.
+     */
+    private final Fix mEstimate = new Fix(LocationFilter.KALMAN_PROVIDER);
+
+    private final List<Connection> mSubscribers;
+
+    private long mTick;
+    private volatile boolean mClosed;
+
+    // Counters, written by the selector thread only
+    private volatile long mFixCount;
+    private volatile long mRejectedFixCount;
+    private volatile long mEstimateCount;
+    private volatile long mDroppedEstimateCount;
+    private volatile int mConnectionCount;
+    private volatile long mAcceptErrorCount;
+
+    /**
+     * @param port Port to listen on, 0 for any free port.
+     * @param capacity Maximum number of devices. Fixes of further devices are rejected.
+     * @throws IOException If the port can't be bound.
+     */
+    public FleetServer(int port, int capacity) throws IOException {
+
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        mFilter = new FleetFilter(capacity, true);
+        mDeviceIds = new long[capacity];
+        mFixTicks = new long[capacity];
+        mDevice2Track = new HashMap<Long, Integer>(capacity * 2);
+        mSubscribers = new ArrayList<Connection>();
+
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+
+        try {
+
+            mServerChannel.configureBlocking(false);
+            mServerChannel.socket().bind(new InetSocketAddress(port));
+            mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        } catch (IOException e) {
+
+            mServerChannel.close();
+            mSelector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Port the server listens on.
+     */
+    public int getPort() { return mServerChannel.socket().getLocalPort(); }
+
+    /**
+     * Runs the selector loop until {@link #close()} is called.
+     */
+    @Override
+    public void run() {
+
+        long nextTick = System.nanoTime() + TICK_MILLIS * 1000000L;
+
+        try {
+
+            while (!mClosed) {
+
+                long wait = (nextTick - System.nanoTime()) / 1000000L;
+
+                if (wait > 0)
+                    mSelector.select(wait);
+                else
+                    mSelector.selectNow();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    // Failing to accept one client must not take the listening socket down
+                    if (key.isAcceptable()) {
+
+                        try {
+
+                            accept();
+
+                        } catch (IOException e) {
+
+                            mAcceptErrorCount++;
+                        }
+
+                        continue;
+                    }
+
+                    try {
+
+                        if (key.isReadable())
+                            read(key);
+
+                        if (key.isValid() && key.isWritable())
+                            write(key);
+
+                    } catch (IOException e) {
+
+                        close(key);
+                    }
+                }
+
+                if (System.nanoTime() - nextTick >= 0) {
+
+                    tick();
+                    nextTick += TICK_MILLIS * 1000000L;
+                }
+            }
+
+        } catch (IOException e) {
+
+            throw new IllegalStateException("Selector failed", e);
+
+        } finally {
+
+            for (SelectionKey key : mSelector.keys()) {
+
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+
+            try {
+                mSelector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Stops the selector loop, closing all connections. The loop exits after its current iteration.
+     */
+    @Override
+    public void close() {
+
+        mClosed = true;
+        mSelector.wakeup();
+    }
+
+    /**
+     * Accepts a pending connection, if any. On failure, the accepted channel is closed.
+     */
+    private void accept() throws IOException {
+
+        SocketChannel channel = mServerChannel.accept();
+
+        if (channel == null)
+            return;
+
+        try {
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(mSelector, SelectionKey.OP_READ, new Connection());
+
+        } catch (IOException e) {
+
+            channel.close();
+            throw e;
+        }
+
+        mConnectionCount++;
+    }
+
+    /**
+     * Closes the connection of the given key. Never called with the key of the listening socket.
+     */
+    private void close(SelectionKey key) {
+
+        Connection connection = (Connection) key.attachment();
+
+        if (connection == null)
+            return;
+
+        if (connection.mOutput != null)
+            mSubscribers.remove(connection);
+
+        key.cancel();
+        mConnectionCount--;
+
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Reads what is available and handles every complete message.
+     */
+    private void read(SelectionKey key) throws IOException {
+
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer input = connection.mInput;
+
+        if (((SocketChannel) key.channel()).read(input) < 0) {
+
+            close(key);
+            return;
+        }
+
+        input.flip();
+
+        while (input.remaining() >= FleetProtocol.HEADER_SIZE) {
+
+            int length = input.getInt(input.position());
+
+            if (length < 1 || length > FleetProtocol.MAX_LENGTH)
+                throw new IOException("Bad message length " + length);
+
+            if (input.remaining() < FleetProtocol.HEADER_SIZE + length)
+                break;
+
+            int end = input.position() + FleetProtocol.HEADER_SIZE + length;
+            input.position(input.position() + FleetProtocol.HEADER_SIZE);
+
+            byte type = input.get();
+
+            if (type == FleetProtocol.TYPE_FIX && length == FleetProtocol.FIX_LENGTH)
+                fix(input);
+            else if (type == FleetProtocol.TYPE_SUBSCRIBE && length == FleetProtocol.SUBSCRIBE_LENGTH)
+                subscribe(key, connection);
+            else
+                throw new IOException("Bad message type " + type + " of length " + length);
+
+            input.position(end);
+        }
+
+        input.compact();
+    }
+
+    /**
+     * Prediction to the fix time and correction step of the device of the fix at the buffer position.
+     */
+    private void fix(ByteBuffer input) {
+
+        long deviceId = input.getLong();
+        long time = input.getLong();
+        double latitude = input.getDouble();
+        double longitude = input.getDouble();
+        double altitude = input.getDouble();
+        float accuracy = input.getFloat();
+
+        Integer track = mDevice2Track.get(deviceId);
+
+        if (track == null) {
+
+            if (mTrackCount == mDeviceIds.length) {
+
+                mRejectedFixCount++;
+                return;
+            }
+
+            track = mTrackCount++;
+            mDevice2Track.put(deviceId, track);
+            mDeviceIds[track] = deviceId;
+        }
+
+        int index = track;
+
+        mFilter.update(index, time, latitude, longitude, altitude == altitude, altitude, accuracy);
+        mFixTicks[index] = mTick;
+        mFixCount++;
+    }
+
+    private void subscribe(SelectionKey key, Connection connection) {
+
+        if (connection.mOutput != null)
+            return;
+
+        connection.mOutput = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE);
+        connection.mKey = key;
+        mSubscribers.add(connection);
+    }
+
+    /**
+     * Publication of the active devices.
+     */
+    private void tick() {
+
+        mTick++;
+
+        if (mSubscribers.isEmpty())
+            return;
+
+        long now = System.currentTimeMillis();
+
+        for (int track = 0; track < mTrackCount; track++) {
+
+            if (mTick - mFixTicks[track] > IDLE_TICKS || !mFilter.isInitialized(track))
+                continue;
+
+            mFilter.getEstimate(track, now, mEstimate);
+
+            for (int i = 0; i < mSubscribers.size(); i++) {
+
+                Connection subscriber = mSubscribers.get(i);
+                ByteBuffer output = subscriber.mOutput;
+
+                // Full: take the chance to send what the socket takes now, before dropping
+                if (output.remaining() < ESTIMATE_SIZE && !subscriber.mFailed)
+                    drain(subscriber);
+
+                if (output.remaining() < ESTIMATE_SIZE) {
+
+                    mDroppedEstimateCount++;
+                    continue;
+                }
+
+                FleetProtocol.putFix(output, FleetProtocol.TYPE_ESTIMATE, mDeviceIds[track], mEstimate);
+
+                mEstimateCount++;
+            }
+        }
+
+        // Copy, as failed writes remove subscribers
+        for (Connection subscriber : new ArrayList<Connection>(mSubscribers)) {
+
+            if (subscriber.mFailed) {
+
+                close(subscriber.mKey);
+                continue;
+            }
+
+            try {
+
+                write(subscriber.mKey);
+
+            } catch (IOException e) {
+
+                close(subscriber.mKey);
+            }
+        }
+    }
+
+    /**
+     * Writes what the socket of the given subscriber takes, without blocking. On failure, the subscriber is
+     * marked to be closed once publication is done.
+     */
+    private void drain(Connection subscriber) {
+
+        ByteBuffer output = subscriber.mOutput;
+
+        try {
+
+            output.flip();
+            ((SocketChannel) subscriber.mKey.channel()).write(output);
+
+        } catch (IOException e) {
+
+            subscriber.mFailed = true;
+
+        } finally {
+
+            output.compact();
+        }
+    }
+
+    /**
+     * Writes as much pending output as the socket takes, waiting for it to be writable if anything is left.
+     */
+    private void write(SelectionKey key) throws IOException {
+
+        ByteBuffer output = ((Connection) key.attachment()).mOutput;
+
+        if (output == null || output.position() == 0) {
+
+            key.interestOps(SelectionKey.OP_READ);
+            return;
+        }
+
+        output.flip();
+        ((SocketChannel) key.channel()).write(output);
+        output.compact();
+
+        key.interestOps(output.position() > 0
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ);
+    }
+
+    /**
+     * @return Fixes filtered since the server started.
+     */
+    public long getFixCount() { return mFixCount; }
+
+    /**
+     * @return Fixes ignored because the device capacity was exhausted.
+     */
+    public long getRejectedFixCount() { return mRejectedFixCount; }
+
+    /**
+     * @return Estimates queued to subscribers.
+     */
+    public long getEstimateCount() { return mEstimateCount; }
+
+    /**
+     * @return Estimates dropped because a subscriber was not keeping up.
+     */
+    public long getDroppedEstimateCount() { return mDroppedEstimateCount; }
+
+    /**
+     * @return Number of devices seen.
+     */
+    public int getDeviceCount() { return mTrackCount; }
+
+    /**
+     * @return Number of open connections.
+     */
+    public int getConnectionCount() { return mConnectionCount; }
+
+    /**
+     * @return Incoming connections that failed to be accepted.
+     */
+    public long getAcceptErrorCount() { return mAcceptErrorCount; }
+
+    /**
+     * Buffers of a connection. Output is null unless subscribed.
+     */
+    private static class Connection {
+
+        final ByteBuffer mInput = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE);
+        ByteBuffer mOutput;
+        SelectionKey mKey;
+        boolean mFailed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        if (args.length < 1) {
+
+            System.err.println("Usage: FleetServer port [capacity]");
+            System.exit(2);
+        }
+
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+
+        FleetServer server = new FleetServer(Integer.parseInt(args[0]), capacity);
+        Thread thread = new Thread(server, FleetServer.class.getSimpleName());
+        thread.start();
+
+        System.out.println("Listening on port " + server.getPort());
+
+        long lastFixCount = 0;
+
+        while (thread.isAlive()) {
+
+            thread.join(REPORT_MILLIS);
+
+            long fixCount = server.getFixCount();
+
+            System.out.println(String.format(
+                    "%d connections, %d accept errors, %d devices, %.0f fixes/s, %d rejected, %d estimates, %d dropped",
+                    server.getConnectionCount(), server.getAcceptErrorCount(), server.getDeviceCount(),
+                    (fixCount - lastFixCount) * 1000.0 / REPORT_MILLIS, server.getRejectedFixCount(),
+                    server.getEstimateCount(), server.getDroppedEstimateCount()));
+
+            lastFixCount = fixCount;
+        }
+    }
+}